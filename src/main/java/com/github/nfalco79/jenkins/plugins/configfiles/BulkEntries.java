@@ -0,0 +1,177 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.commons.lang.StringUtils;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.FormValidation;
+import jenkins.util.SystemProperties;
+
+/**
+ * Plain text form of config entries, one entry per line with its fields
+ * separated by spaces.
+ * <p>
+ * Configs with more entries than {@code BulkEntries.threshold} are edited
+ * only in this form, so the editor does not render a row with credentials
+ * dropdown and validations for each entry.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+final class BulkEntries {
+
+    static final int THRESHOLD = SystemProperties.getInteger(BulkEntries.class.getName() + ".threshold", 50);
+
+    private BulkEntries() {
+    }
+
+    /**
+     * Returns if the given entries are too many to be edited one by one.
+     *
+     * @param entries of a config
+     * @return {@code true} if the entries should be edited as text
+     */
+    static boolean isBulk(@NonNull List<?> entries) {
+        return entries.size() > THRESHOLD;
+    }
+
+    /**
+     * Formats the given entries, one per line.
+     *
+     * @param <E> the entry type
+     * @param entries to format
+     * @param fields returns the fields of an entry, trailing {@code null}
+     *        fields are omitted
+     * @return the text form of entries
+     */
+    static <E> String format(@NonNull List<E> entries, @NonNull Function<E, String[]> fields) {
+        StringBuilder text = new StringBuilder();
+        for (E entry : entries) {
+            String[] values = fields.apply(entry);
+            int length = values.length;
+            while (length > 0 && values[length - 1] == null) {
+                length--;
+            }
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    text.append(' ');
+                }
+                text.append(StringUtils.defaultString(values[i], "-"));
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Merges the entries in the given text with the given entries.
+     * <p>
+     * Entries in the text replace the entries with the same key, others are
+     * appended. Blank lines and lines starting with {@code #} are skipped, a
+     * {@code -} field stands for a missing value.
+     *
+     * @param <E> the entry type
+     * @param entries the current entries
+     * @param text the entries in text form
+     * @param minFields the number of fields required for an entry
+     * @param factory creates an entry from its fields
+     * @param key returns the key of an entry
+     * @return the merged entries
+     * @throws IllegalArgumentException if a line has not enough fields
+     */
+    static <E> List<E> merge(@NonNull List<E> entries, @CheckForNull String text, int minFields, @NonNull Function<String[], E> factory, @NonNull Function<E, String> key) {
+        if (StringUtils.isBlank(text)) {
+            return entries;
+        }
+
+        Map<String, E> merged = new LinkedHashMap<>();
+        for (E entry : entries) {
+            merged.put(key.apply(entry), entry);
+        }
+        String[] lines = text.split("\\r?\\n");
+        for (int i = 0; i < lines.length; i++) {
+            String[] fields = fields(lines[i]);
+            if (fields == null) {
+                continue;
+            }
+            if (fields.length < minFields) {
+                // the form validation reports it before the config is submitted
+                throw new IllegalArgumentException(Messages.BulkEntries_missingFields(i + 1, minFields));
+            }
+            for (int f = 0; f < fields.length; f++) {
+                if ("-".equals(fields[f])) {
+                    fields[f] = null;
+                }
+            }
+            E entry = factory.apply(fields);
+            merged.put(key.apply(entry), entry);
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * Verifies that each entry in the given text has the required fields.
+     *
+     * @param text the entries in text form
+     * @param minFields the number of fields required for an entry
+     * @return the error for the first malformed line, ok otherwise
+     */
+    @NonNull
+    static FormValidation validate(@CheckForNull String text, int minFields) {
+        if (StringUtils.isBlank(text)) {
+            return FormValidation.ok();
+        }
+        String[] lines = text.split("\\r?\\n");
+        for (int i = 0; i < lines.length; i++) {
+            String[] fields = fields(lines[i]);
+            if (fields != null && fields.length < minFields) {
+                return FormValidation.error(Messages.BulkEntries_missingFields(i + 1, minFields));
+            }
+        }
+        return FormValidation.ok();
+    }
+
+    @CheckForNull
+    private static String[] fields(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return null;
+        }
+        return trimmed.split("\\s+");
+    }
+
+    /**
+     * Returns the field at the given index or {@code null} if missing.
+     *
+     * @param fields of an entry
+     * @param index of the field
+     * @return the field value
+     */
+    @CheckForNull
+    static String field(String[] fields, int index) {
+        return index < fields.length ? fields[index] : null;
+    }
+
+}
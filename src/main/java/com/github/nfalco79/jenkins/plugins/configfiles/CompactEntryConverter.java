@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+
+/**
+ * Stores a config entry as a single element with its fields as attributes.
+ * <p>
+ * The element carries the format version, elements without a version are in
+ * the legacy layout written by reflection, with a child element per field.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ * @param <T> the entry type
+ */
+abstract class CompactEntryConverter<T> implements Converter {
+    private static final String VERSION = "v";
+    private static final String CURRENT_VERSION = "1";
+
+    private final Class<T> type;
+    private final String[] fields;
+
+    protected CompactEntryConverter(Class<T> type, String... fields) {
+        this.type = type;
+        this.fields = fields;
+    }
+
+    /**
+     * Returns the values of the entry fields in the same order of the field
+     * names.
+     *
+     * @param entry to store
+     * @return the field values, {@code null} values are not stored
+     */
+    protected abstract String[] values(T entry);
+
+    /**
+     * Creates an entry from the stored values.
+     *
+     * @param values the stored values by field name
+     * @return a new entry
+     */
+    protected abstract T create(Map<String, String> values);
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public boolean canConvert(Class clazz) {
+        return clazz == type;
+    }
+
+    @Override
+    public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+        writer.addAttribute(VERSION, CURRENT_VERSION);
+        String[] values = values(type.cast(source));
+        for (int i = 0; i < fields.length; i++) {
+            if (values[i] != null) {
+                writer.addAttribute(fields[i], values[i]);
+            }
+        }
+    }
+
+    @Override
+    public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+        Map<String, String> values = new HashMap<>();
+        if (reader.getAttribute(VERSION) != null) {
+            for (String field : fields) {
+                values.put(field, reader.getAttribute(field));
+            }
+        } else {
+            // legacy layout
+            while (reader.hasMoreChildren()) {
+                reader.moveDown();
+                values.put(reader.getNodeName(), reader.getValue());
+                reader.moveUp();
+            }
+        }
+        return create(values);
+    }
+
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.nfalco79.jenkins.plugins.configfiles.util.RamDisk;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.slaves.WorkspaceList;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * A set of rendered config files written on a node in a single call.
+ * <p>
+ * Files without a target location are temporary, config marked in memory
+ * are written in a per-build folder on a RAM-backed filesystem when the node
+ * has one, otherwise in the workspace temporary folder.
+ * <p>
+ * Files with a target location that already have the same SHA-256 digest on
+ * the node are neither transferred nor written again.
+ * <p>
+ * Shared files are written atomically with a stable name in a node-level
+ * folder and are not removed with the temporary files of the build, see
+ * {@link SharedConfigFiles}.
+ * <p>
+ * Docker config patches are merged into the existing file on the node, or
+ * into the docker config of the node user when there is no target location.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+final class ConfigFileBundle extends MasterToSlaveCallable<ConfigFileBundle.Result, IOException> {
+    private static final long serialVersionUID = 1L;
+
+    private final String workspace;
+    private final String tempDir;
+    private final String ramDisk;
+    private final List<Entry> entries = new ArrayList<>();
+
+    ConfigFileBundle(@NonNull FilePath workspace) {
+        this.workspace = workspace.getRemote();
+        FilePath tmp = WorkspaceList.tempDir(workspace);
+        this.tempDir = (tmp != null ? tmp : workspace).getRemote();
+        this.ramDisk = RamDisk.getPath();
+    }
+
+    /**
+     * Adds a file to this bundle.
+     *
+     * @param targetLocation the destination path relative to the workspace,
+     *        if {@code null} a temporary file is created
+     * @param inMemory if the temporary file should be written on a RAM-backed
+     *        filesystem
+     * @param content the rendered content
+     */
+    public void add(@CheckForNull String targetLocation, boolean inMemory, @NonNull String content) {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        entries.add(new Entry(targetLocation, null, null, inMemory, data, targetLocation != null ? sha256(data) : null));
+    }
+
+    /**
+     * Adds a shared temporary file to this bundle.
+     *
+     * @param name the file name, unique per run and content
+     * @param inMemory if the file should be written on a RAM-backed
+     *        filesystem
+     * @param content the rendered content
+     */
+    public void addShared(@NonNull String name, boolean inMemory, @NonNull String content) {
+        entries.add(new Entry(null, name, null, inMemory, content.getBytes(StandardCharsets.UTF_8), null));
+    }
+
+    /**
+     * Adds a patch for an existing docker config to this bundle.
+     *
+     * @param targetLocation the path of the docker config relative to the
+     *        workspace, if {@code null} a temporary copy of the docker config
+     *        of the node user
+     * @param patch the auths to merge
+     */
+    public void addPatch(@CheckForNull String targetLocation, @NonNull DockerConfigPatch patch) {
+        entries.add(new Entry(targetLocation, null, patch, false, null, null));
+    }
+
+    /**
+     * Drops from this bundle the content of files that are already up to date
+     * on the node.
+     *
+     * @param node the workspace on the node
+     * @return the number of files up to date
+     * @throws IOException in case of I/O failure
+     * @throws InterruptedException if interrupted while waiting the node
+     */
+    public int skipUnchanged(@NonNull FilePath node) throws IOException, InterruptedException {
+        Map<String, String> digests = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            if (entry.digest != null) {
+                digests.put(entry.targetLocation, entry.digest);
+            }
+        }
+        if (digests.isEmpty()) {
+            return 0;
+        }
+
+        Set<String> unchanged = node.act(new DigestCheck(workspace, digests));
+        int count = 0;
+        for (Entry entry : entries) {
+            if (entry.digest != null && unchanged.contains(entry.targetLocation)) {
+                entry.content = null;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns if the file at the given position is a copy of the docker
+     * config of the node user, for this build only.
+     *
+     * @param index the position of the file in this bundle
+     * @return {@code true} if the file was added as a patch without target
+     */
+    public boolean isDockerConfigCopy(int index) {
+        Entry entry = entries.get(index);
+        return entry.patch != null && entry.targetLocation == null;
+    }
+
+    /**
+     * Returns if the file at the given position is shared.
+     *
+     * @param index the position of the file in this bundle
+     * @return {@code true} if the file was added as shared
+     */
+    public boolean isShared(int index) {
+        return entries.get(index).sharedName != null;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    @Override
+    public Result call() throws IOException {
+        Result result = new Result();
+        // plaintext files written by this call, removed if a later entry fails
+        List<Path> written = new ArrayList<>();
+        try {
+            write(result, written);
+        } catch (IOException | RuntimeException e) {
+            for (Path path : written) {
+                try {
+                    Util.deleteRecursive(path.toFile());
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    private void write(Result result, List<Path> written) throws IOException {
+        Path ramFolder = null;
+        boolean ramFolderLookedUp = false;
+        for (Entry entry : entries) {
+            Path target;
+            if (entry.patch != null) {
+                if (entry.targetLocation != null) {
+                    // the docker config in the workspace is patched in place
+                    target = Paths.get(workspace).resolve(entry.targetLocation);
+                    writePatched(target, entry.patch);
+                } else {
+                    // credentials never reach the docker config of the node
+                    // user, that is shared by all builds, a copy for this
+                    // build is patched and removed at its end
+                    Path folder = Files.createTempDirectory(Files.createDirectories(Paths.get(tempDir)), "docker");
+                    written.add(folder);
+                    result.tempFiles.add(folder.toString());
+                    target = folder.resolve("config.json");
+                    Path userConfig = userDockerConfig();
+                    String existing = Files.isRegularFile(userConfig) ? new String(Files.readAllBytes(userConfig), StandardCharsets.UTF_8) : null;
+                    Files.write(target, entry.patch.apply(existing).getBytes(StandardCharsets.UTF_8));
+                }
+                result.files.add(target.toString());
+                continue;
+            } else if (entry.targetLocation != null) {
+                target = Paths.get(workspace).resolve(entry.targetLocation);
+                Files.createDirectories(target.getParent());
+            } else if (entry.sharedName != null) {
+                writeShared(entry);
+                Path shared = sharedFolder(entry.inMemory).resolve(entry.sharedName);
+                written.add(shared);
+                result.files.add(shared.toString());
+                continue;
+            } else {
+                if (entry.inMemory && !ramFolderLookedUp) {
+                    ramFolder = createRamFolder(result);
+                    ramFolderLookedUp = true;
+                    if (ramFolder != null) {
+                        written.add(ramFolder);
+                    }
+                }
+                if (entry.inMemory && ramFolder != null) {
+                    // the whole folder is removed at the end of the build
+                    target = Files.createTempFile(ramFolder, "config", ".tmp");
+                } else {
+                    Path folder = Files.createDirectories(Paths.get(tempDir));
+                    target = Files.createTempFile(folder, "config", ".tmp");
+                    written.add(target);
+                    result.tempFiles.add(target.toString());
+                }
+            }
+            if (entry.content != null) {
+                if (entry.targetLocation != null) {
+                    written.add(target);
+                }
+                Files.write(target, entry.content);
+            }
+            result.files.add(target.toString());
+        }
+    }
+
+    private void writeShared(Entry entry) throws IOException {
+        Path folder = Files.createDirectories(sharedFolder(entry.inMemory));
+        // other branches see the file only when completely written
+        Path tmp = Files.createTempFile(folder, "config", ".part");
+        try {
+            Files.write(tmp, entry.content);
+            Files.move(tmp, folder.resolve(entry.sharedName), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void writePatched(Path target, DockerConfigPatch patch) throws IOException {
+        // file locks are held by the whole JVM, builds running on the same
+        // agent are serialised here otherwise lock() would fail for them
+        synchronized (ConfigFileBundle.class) {
+            lockAndPatch(target, patch);
+        }
+    }
+
+    private void lockAndPatch(Path target, DockerConfigPatch patch) throws IOException {
+        Path folder = Files.createDirectories(target.toAbsolutePath().getParent());
+        // concurrent builds on the same node must not lose each other auths,
+        // the lock file is never deleted otherwise two builds could lock
+        // different files
+        Path lockFile = folder.resolve(target.getFileName() + ".lock");
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = channel.lock()) {
+            String existing = Files.isRegularFile(target) ? new String(Files.readAllBytes(target), StandardCharsets.UTF_8) : null;
+            byte[] content = patch.apply(existing).getBytes(StandardCharsets.UTF_8);
+            // docker never reads a partially written config
+            Path tmp = Files.createTempFile(folder, "config", ".part");
+            try {
+                Files.write(tmp, content);
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    private static Path userDockerConfig() {
+        String dockerConfig = Util.fixEmptyAndTrim(System.getenv("DOCKER_CONFIG"));
+        Path folder = dockerConfig != null ? Paths.get(dockerConfig) : Paths.get(System.getProperty("user.home"), ".docker");
+        return folder.resolve("config.json");
+    }
+
+    private Path sharedFolder(boolean inMemory) {
+        File mountPoint = inMemory ? RamDisk.locate(ramDisk) : null;
+        if (mountPoint != null) {
+            return mountPoint.toPath().resolve("ext-configfiles");
+        }
+        return Paths.get(tempDir);
+    }
+
+    @CheckForNull
+    private Path createRamFolder(Result result) throws IOException {
+        File mountPoint = RamDisk.locate(ramDisk);
+        if (mountPoint == null) {
+            return null;
+        }
+        Path root = Files.createDirectories(mountPoint.toPath().resolve("ext-configfiles"));
+        Path folder = Files.createTempDirectory(root, "build");
+        result.tempFiles.add(folder.toString());
+        return folder;
+    }
+
+    static String sha256(byte[] data) {
+        return Util.toHexString(sha256().digest(data));
+    }
+
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[8192];
+        try (InputStream is = Files.newInputStream(file)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM must support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String targetLocation;
+        private final String sharedName;
+        private final DockerConfigPatch patch;
+        private final boolean inMemory;
+        private final String digest;
+        private byte[] content;
+
+        Entry(String targetLocation, String sharedName, DockerConfigPatch patch, boolean inMemory, byte[] content, String digest) {
+            this.targetLocation = targetLocation;
+            this.sharedName = sharedName;
+            this.patch = patch;
+            this.inMemory = inMemory;
+            this.content = content;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * Returns the target locations whose file on the node already has the
+     * expected digest.
+     */
+    private static class DigestCheck extends MasterToSlaveCallable<Set<String>, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String workspace;
+        private final Map<String, String> digests;
+
+        DigestCheck(String workspace, Map<String, String> digests) {
+            this.workspace = workspace;
+            this.digests = digests;
+        }
+
+        @Override
+        public Set<String> call() throws IOException {
+            Set<String> unchanged = new HashSet<>();
+            for (Map.Entry<String, String> digest : digests.entrySet()) {
+                Path target = Paths.get(workspace).resolve(digest.getKey());
+                if (Files.isRegularFile(target) && digest.getValue().equals(sha256(target))) {
+                    unchanged.add(digest.getKey());
+                }
+            }
+            return unchanged;
+        }
+    }
+
+    /**
+     * The paths of written files.
+     */
+    static class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> files = new ArrayList<>();
+        private final List<String> tempFiles = new ArrayList<>();
+
+        /**
+         * Returns the written files in the same order they were added to the
+         * bundle.
+         *
+         * @return the file paths on the node
+         */
+        public List<String> getFiles() {
+            return files;
+        }
+
+        /**
+         * Returns the paths to remove at the end of the build.
+         *
+         * @return the temporary paths on the node
+         */
+        public List<String> getTempFiles() {
+            return tempFiles;
+        }
+    }
+
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jenkinsci.lib.configprovider.ConfigProvider;
+import org.jenkinsci.lib.configprovider.model.Config;
+import org.jenkinsci.plugins.configfiles.ConfigFiles;
+import org.jenkinsci.plugins.configfiles.buildwrapper.ManagedFile;
+
+import com.github.nfalco79.jenkins.plugins.configfiles.util.BundleCredentialsResolver;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsLookup;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsResolver;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+/**
+ * Resolves, renders and writes on a node a set of managed files.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+final class ConfigFileProvisioner {
+
+    private static final String DOCKER_CONFIG = "DOCKER_CONFIG";
+
+    private final List<ManagedFile> managedFiles;
+    private final Set<String> sensitiveVariables = new LinkedHashSet<>();
+
+    ConfigFileProvisioner(@NonNull List<ManagedFile> managedFiles) {
+        this.managedFiles = managedFiles;
+    }
+
+    /**
+     * Provisions all managed files in the given workspace.
+     *
+     * @param build a build being run
+     * @param workspace the workspace where write files
+     * @param listener the build listener
+     * @param env the build environment
+     * @param tempFiles collects the paths to remove at the end of the build
+     * @return the environment variables that point to provisioned files or
+     *         that hold the content of configs provided as environment
+     * @throws IOException in case of render or write failure
+     * @throws InterruptedException if the build was aborted
+     */
+    @NonNull
+    public Map<String, String> provision(@NonNull Run<?, ?> build,
+                                         @NonNull FilePath workspace,
+                                         @NonNull TaskListener listener,
+                                         @NonNull EnvVars env,
+                                         @NonNull List<String> tempFiles) throws IOException, InterruptedException {
+        String node = nodeName(workspace);
+        try {
+            return provision(build, workspace, listener, env, tempFiles, node);
+        } finally {
+            if (node != null) {
+                // also on failure, so the sweeper finds the files already written
+                TempFileLeases.get().acquire(build, node, tempFiles);
+            }
+        }
+    }
+
+    /**
+     * Returns the variables that hold the whole rendered content of a config
+     * provided as environment variable.
+     *
+     * @return the names of variables whose value must not be printed
+     */
+    @NonNull
+    public Set<String> getSensitiveVariables() {
+        return Collections.unmodifiableSet(sensitiveVariables);
+    }
+
+    private Map<String, String> provision(Run<?, ?> build, FilePath workspace, TaskListener listener, EnvVars env, List<String> tempFiles, String node) throws IOException, InterruptedException {
+        // credentials shared by many config files are resolved only once
+        BundleCredentialsResolver resolver = new BundleCredentialsResolver(CredentialsLookup.get());
+        ConfigFileBundle bundle = new ConfigFileBundle(workspace);
+        List<String> variables = new ArrayList<>(managedFiles.size());
+        List<SharedConfigFiles.Lease> owned = new ArrayList<>();
+        List<Waiter> waiting = new ArrayList<>();
+        Map<String, String> environment = new LinkedHashMap<>();
+        try {
+            for (ManagedFile managedFile : managedFiles) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                Config config = ConfigFiles.getByIdOrNull(build, managedFile.getFileId());
+                if (config == null) {
+                    throw new AbortException(Messages.ExtConfigFileBuildWrapper_configNotFound(managedFile.getFileId()));
+                }
+
+                listener.getLogger().println("provisioning config file " + config.name);
+                String content = Util.fixNull(render(config, build, workspace, listener, resolver, env, tempFiles));
+
+                String variable = Util.fixEmptyAndTrim(managedFile.getVariable());
+                if (config instanceof ExtConfig && ((ExtConfig) config).isInEnvironment()) {
+                    // no file on the node, secrets in the content are masked in the log
+                    if (variable == null) {
+                        throw new AbortException(Messages.ConfigFileProvisioner_variableRequired(config.name));
+                    }
+                    environment.put(variable, content);
+                    sensitiveVariables.add(variable);
+                    continue;
+                }
+
+                boolean inMemory = config instanceof ExtConfig && ((ExtConfig) config).isInMemory();
+                String targetLocation = Util.fixEmptyAndTrim(env.expand(managedFile.getTargetLocation()));
+                if (config instanceof DockerConfig && ((DockerConfig) config).isMergeExisting()) {
+                    // only the auths are transferred, the node merges them in its file
+                    bundle.addPatch(targetLocation, patch(config, content));
+                } else if (targetLocation == null && node != null) {
+                    // parallel branches of the run on this node write the same content once
+                    String digest = ConfigFileBundle.sha256(content.getBytes(StandardCharsets.UTF_8));
+                    SharedConfigFiles.Lease lease = SharedConfigFiles.acquire(build.getExternalizableId(), node, digest, inMemory);
+                    if (!lease.isOwner()) {
+                        waiting.add(new Waiter(lease, variable, digest, inMemory, content));
+                        continue;
+                    }
+                    owned.add(lease);
+                    bundle.addShared(lease.getName(), inMemory, content);
+                } else {
+                    bundle.add(targetLocation, inMemory, content);
+                }
+                variables.add(variable);
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            // branches waiting for files of this branch must not wait forever
+            release(owned, waiting, e, tempFiles);
+            throw e;
+        }
+
+        Map<String, String> variable2File = new LinkedHashMap<>();
+        if (!bundle.isEmpty()) {
+            ConfigFileBundle.Result result;
+            try {
+                int unchanged = bundle.skipUnchanged(workspace);
+                if (unchanged > 0) {
+                    listener.getLogger().println(unchanged + " config files are already up to date");
+                }
+
+                // all files are written on the node in one call
+                result = workspace.act(bundle);
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                release(owned, waiting, e, tempFiles);
+                throw e;
+            }
+            tempFiles.addAll(result.getTempFiles());
+
+            List<String> files = result.getFiles();
+            int shared = 0;
+            for (int i = 0; i < files.size(); i++) {
+                if (bundle.isShared(i)) {
+                    tempFiles.add(files.get(i));
+                    owned.get(shared++).written(files.get(i));
+                } else if (bundle.isDockerConfigCopy(i)) {
+                    // docker reads the config of this build from its folder
+                    environment.put(DOCKER_CONFIG, new FilePath(workspace.getChannel(), files.get(i)).getParent().getRemote());
+                }
+                String variable = variables.get(i);
+                if (variable != null) {
+                    variable2File.put(variable, files.get(i));
+                }
+            }
+        }
+
+        // files written by other branches are awaited only after this branch
+        // has written its own, so branches never wait each other in a cycle
+        List<Waiter> pending = new ArrayList<>(waiting);
+        try {
+            while (!pending.isEmpty()) {
+                Waiter waiter = pending.get(0);
+                String file = waiter.lease.await();
+                if (file == null) {
+                    // the owner failed, this branch takes over the file
+                    waiter.lease = SharedConfigFiles.acquire(build.getExternalizableId(), node, waiter.digest, waiter.inMemory);
+                    if (!waiter.lease.isOwner()) {
+                        // another branch took over first
+                        continue;
+                    }
+                    file = writeShared(workspace, waiter);
+                }
+                pending.remove(0);
+                tempFiles.add(file);
+                if (waiter.variable != null) {
+                    variable2File.put(waiter.variable, file);
+                }
+            }
+        } finally {
+            // leases not received are given up, or the holders never reach zero
+            for (Waiter waiter : pending) {
+                String written = waiter.lease.abandon();
+                if (written != null) {
+                    tempFiles.add(written);
+                }
+            }
+        }
+        variable2File.putAll(environment);
+        return variable2File;
+    }
+
+    private static String writeShared(FilePath workspace, Waiter waiter) throws IOException, InterruptedException {
+        ConfigFileBundle bundle = new ConfigFileBundle(workspace);
+        bundle.addShared(waiter.lease.getName(), waiter.inMemory, waiter.content);
+        try {
+            String file = workspace.act(bundle).getFiles().get(0);
+            waiter.lease.written(file);
+            return file;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            waiter.lease.failed(e);
+            throw e;
+        }
+    }
+
+    private static void release(List<SharedConfigFiles.Lease> owned, List<Waiter> waiting, Throwable cause, List<String> tempFiles) {
+        for (SharedConfigFiles.Lease lease : owned) {
+            lease.failed(cause);
+        }
+        for (Waiter waiter : waiting) {
+            String written = waiter.lease.abandon();
+            if (written != null) {
+                tempFiles.add(written);
+            }
+        }
+    }
+
+    /**
+     * A shared file this branch waits for, with what is needed to write it
+     * if its owner fails.
+     */
+    private static class Waiter {
+        private SharedConfigFiles.Lease lease;
+        private final String variable;
+        private final String digest;
+        private final boolean inMemory;
+        private final String content;
+
+        Waiter(SharedConfigFiles.Lease lease, String variable, String digest, boolean inMemory, String content) {
+            this.lease = lease;
+            this.variable = variable;
+            this.digest = digest;
+            this.inMemory = inMemory;
+            this.content = content;
+        }
+    }
+
+    private static DockerConfigPatch patch(Config config, String content) throws AbortException {
+        try {
+            return DockerConfigPatch.of(content);
+        } catch (RuntimeException e) {
+            throw new AbortException("Invalid user config " + config.name + ": " + e.getMessage());
+        }
+    }
+
+    @CheckForNull
+    private static String nodeName(FilePath workspace) {
+        Computer computer = workspace.toComputer();
+        return computer != null ? computer.getName() : null;
+    }
+
+    private String render(Config config, Run<?, ?> build, FilePath workspace, TaskListener listener, CredentialsResolver resolver, EnvVars env, List<String> tempFiles) throws IOException {
+        ConfigProvider provider = config.getDescriptor();
+        if (provider instanceof ExtConfigProvider) {
+            return ((ExtConfigProvider) provider).render(config, build, listener, resolver, env);
+        }
+        return provider.supplyContent(config, build, workspace, listener, tempFiles);
+    }
+
+    /**
+     * Removes the given temporary files from the node in a single call and
+     * releases their lease.
+     * <p>
+     * Shared files are removed only when released by all branches that hold
+     * them.
+     *
+     * @param build the build that wrote the files
+     * @param workspace the workspace where files were written
+     * @param tempFiles the paths to remove
+     * @throws IOException in case of I/O failure
+     * @throws InterruptedException if interrupted while waiting the node
+     */
+    public static void cleanup(@NonNull Run<?, ?> build, @NonNull FilePath workspace, @NonNull List<String> tempFiles) throws IOException, InterruptedException {
+        String node = nodeName(workspace);
+        List<String> paths = new ArrayList<>(tempFiles.size());
+        for (String tempFile : tempFiles) {
+            if (!SharedConfigFiles.release(node, tempFile)) {
+                paths.add(tempFile);
+            }
+        }
+        // files left by a failure are removed later by the leases sweeper
+        TempFileLeases.delete(workspace.getChannel(), paths);
+        if (node != null) {
+            TempFileLeases.get().release(build, node, paths);
+        }
+    }
+
+}
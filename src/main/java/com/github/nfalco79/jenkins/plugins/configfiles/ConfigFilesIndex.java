@@ -0,0 +1,448 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jenkinsci.lib.configprovider.model.Config;
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.jenkinsci.plugins.configfiles.folder.FolderConfigFileProperty;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.json.JsonHttpResponse;
+import org.kohsuke.stapler.verb.GET;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.RegistryEndpoint;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Item;
+import hudson.model.RootAction;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Index of the config files by registry host and credentials identifier.
+ * <p>
+ * The index is updated when the global config files or the config files of a
+ * folder are saved, only configs that are new, changed or removed are
+ * indexed again. It can be queried at
+ * {@code /ext-config-files-index/query?host=...&credentialsId=...} or with the
+ * {@code find-ext-config-files} CLI command.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+@Extension
+public class ConfigFilesIndex implements RootAction {
+
+    private final Map<Ref, Indexed> configs = new HashMap<>();
+    private final Map<String, Set<Ref>> byHost = new HashMap<>();
+    private final Map<String, Set<Ref>> byCredentialsId = new HashMap<>();
+
+    public static ConfigFilesIndex get() {
+        return ExtensionList.lookupSingleton(ConfigFilesIndex.class);
+    }
+
+    /**
+     * Returns the configs that have an entry for the given host.
+     *
+     * @param host the registry host name
+     * @return the matching configs
+     */
+    @NonNull
+    public synchronized Set<Ref> findByHost(@CheckForNull String host) {
+        String key = Util.fixEmptyAndTrim(host);
+        if (key == null) {
+            return Collections.emptySet();
+        }
+        return copy(byHost.get(key.toLowerCase(Locale.ENGLISH)));
+    }
+
+    /**
+     * Returns the configs that use the given credentials.
+     *
+     * @param credentialsId the credentials identifier
+     * @return the matching configs
+     */
+    @NonNull
+    public synchronized Set<Ref> findByCredentialsId(@CheckForNull String credentialsId) {
+        String key = Util.fixEmptyAndTrim(credentialsId);
+        if (key == null) {
+            return Collections.emptySet();
+        }
+        return copy(byCredentialsId.get(key));
+    }
+
+    private static Set<Ref> copy(Set<Ref> refs) {
+        return refs == null ? Collections.emptySet() : new LinkedHashSet<>(refs);
+    }
+
+    /**
+     * Updates the index with the current configs of a store.
+     *
+     * @param folder the full name of the folder that owns the configs,
+     *        {@code null} for the global configs
+     * @param current the configs of the store
+     */
+    synchronized void update(@CheckForNull String folder, @NonNull Collection<Config> current) {
+        Set<Ref> seen = new HashSet<>();
+        for (Config config : current) {
+            if (!(config instanceof ExtConfig)) {
+                continue;
+            }
+            Ref ref = new Ref(folder, config.id);
+            seen.add(ref);
+
+            Indexed old = configs.get(ref);
+            if (old != null && old.config.get() == config) {
+                // not changed
+                continue;
+            }
+            if (old != null) {
+                unindex(ref, old);
+            }
+            index(ref, new Indexed(config));
+        }
+
+        for (Iterator<Map.Entry<Ref, Indexed>> it = configs.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Ref, Indexed> entry = it.next();
+            Ref ref = entry.getKey();
+            if (Objects.equals(ref.folder, folder) && !seen.contains(ref)) {
+                it.remove();
+                unindex(ref, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes all configs of a folder from the index.
+     *
+     * @param folder the folder full name
+     */
+    synchronized void remove(@NonNull String folder) {
+        update(folder, Collections.emptyList());
+    }
+
+    /**
+     * Removes all configs of a folder and of its nested folders from the
+     * index.
+     *
+     * @param folder the folder full name
+     */
+    synchronized void removeTree(@NonNull String folder) {
+        String prefix = folder + '/';
+        for (Iterator<Map.Entry<Ref, Indexed>> it = configs.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Ref, Indexed> entry = it.next();
+            Ref ref = entry.getKey();
+            if (ref.folder != null && (ref.folder.equals(folder) || ref.folder.startsWith(prefix))) {
+                it.remove();
+                unindex(ref, entry.getValue());
+            }
+        }
+    }
+
+    private void index(Ref ref, Indexed indexed) {
+        configs.put(ref, indexed);
+        for (String host : indexed.hosts) {
+            byHost.computeIfAbsent(host, k -> new HashSet<>()).add(ref);
+        }
+        for (String credentialsId : indexed.credentialsIds) {
+            byCredentialsId.computeIfAbsent(credentialsId, k -> new HashSet<>()).add(ref);
+        }
+    }
+
+    private void unindex(Ref ref, Indexed indexed) {
+        for (String host : indexed.hosts) {
+            removeRef(byHost, host, ref);
+        }
+        for (String credentialsId : indexed.credentialsIds) {
+            removeRef(byCredentialsId, credentialsId, ref);
+        }
+    }
+
+    private static void removeRef(Map<String, Set<Ref>> index, String key, Ref ref) {
+        Set<Ref> refs = index.get(key);
+        if (refs != null) {
+            refs.remove(ref);
+            if (refs.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns the configs that match the given host and credentials.
+     *
+     * @param host the registry host name
+     * @param credentialsId the credentials identifier
+     * @return the configs that match both criteria, when given
+     */
+    @NonNull
+    public Set<Ref> find(@CheckForNull String host, @CheckForNull String credentialsId) {
+        Set<Ref> result = null;
+        if (Util.fixEmptyAndTrim(host) != null) {
+            result = findByHost(host);
+        }
+        if (Util.fixEmptyAndTrim(credentialsId) != null) {
+            Set<Ref> refs = findByCredentialsId(credentialsId);
+            if (result == null) {
+                result = refs;
+            } else {
+                result.retainAll(refs);
+            }
+        }
+        return result != null ? result : Collections.emptySet();
+    }
+
+    @GET
+    public HttpResponse doQuery(@QueryParameter String host, @QueryParameter String credentialsId) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        JSONArray result = new JSONArray();
+        for (Ref ref : find(host, credentialsId)) {
+            JSONObject json = new JSONObject();
+            json.put("id", ref.getId());
+            if (ref.getFolder() != null) {
+                json.put("folder", ref.getFolder());
+            }
+            result.add(json);
+        }
+        return new JsonHttpResponse(new JSONObject().element("configs", result));
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.ConfigFilesIndex_displayName();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "ext-config-files-index";
+    }
+
+    /**
+     * Returns the normalised host of a registry URL.
+     *
+     * @param url the registry URL
+     * @return the lower case host name, {@code null} if the URL contains
+     *         variables or is not valid
+     */
+    @CheckForNull
+    static String normalizeHost(@CheckForNull String url) {
+        RegistryEndpoint endpoint = RegistryEndpoint.of(url);
+        String host = endpoint.getHost();
+        if (host == null && endpoint.getUrl() != null && !endpoint.getUrl().contains("://")) {
+            // docker registries could omit the protocol
+            host = endpoint.getUrl().split("[/:]", 2)[0];
+        }
+        host = Util.fixEmpty(host);
+        if (host == null || host.contains("$")) {
+            return null;
+        }
+        return host.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Reference to an indexed config file.
+     */
+    public static final class Ref implements Comparable<Ref> {
+        private final String folder;
+        private final String id;
+
+        Ref(@CheckForNull String folder, @NonNull String id) {
+            this.folder = folder;
+            this.id = id;
+        }
+
+        /**
+         * Returns the full name of the folder that owns the config.
+         *
+         * @return the folder full name or {@code null} for global configs
+         */
+        @CheckForNull
+        public String getFolder() {
+            return folder;
+        }
+
+        @NonNull
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(folder, id);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Ref)) {
+                return false;
+            }
+            Ref other = (Ref) obj;
+            return Objects.equals(folder, other.folder) && id.equals(other.id);
+        }
+
+        @Override
+        public int compareTo(Ref o) {
+            return toString().compareTo(o.toString());
+        }
+
+        @Override
+        public String toString() {
+            return folder != null ? folder + "/" + id : id;
+        }
+    }
+
+    /**
+     * Keys extracted from a config.
+     */
+    private static final class Indexed {
+        private final WeakReference<Config> config;
+        private final Set<String> hosts = new TreeSet<>();
+        private final Set<String> credentialsIds = new TreeSet<>();
+
+        Indexed(Config config) {
+            this.config = new WeakReference<>(config);
+
+            List<String[]> entries = new ArrayList<>();
+            if (config instanceof DockerConfig) {
+                for (DockerRegistry registry : ((DockerConfig) config).getRegistries()) {
+                    entries.add(new String[] { registry.getUrl(), registry.getCredentialsId() });
+                }
+            } else if (config instanceof PyPIConfig) {
+                for (PyPIServer server : ((PyPIConfig) config).getServers()) {
+                    entries.add(new String[] { server.getUrl(), server.getCredentialsId() });
+                }
+            } else if (config instanceof GemConfig) {
+                for (GemSource source : ((GemConfig) config).getSources()) {
+                    entries.add(new String[] { source.getUrl(), source.getCredentialsId() });
+                }
+                entries.add(new String[] { null, ((GemConfig) config).getApiKey() });
+            }
+
+            for (String[] entry : entries) {
+                String host = normalizeHost(entry[0]);
+                if (host != null) {
+                    hosts.add(host);
+                }
+                String credentialsId = Util.fixEmptyAndTrim(entry[1]);
+                if (credentialsId != null) {
+                    credentialsIds.add(credentialsId);
+                }
+            }
+        }
+    }
+
+    @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+    public static void indexAll() {
+        ConfigFilesIndex index = get();
+        index.update(null, GlobalConfigFiles.get().getConfigs());
+        for (AbstractFolder<?> folder : Jenkins.get().allItems(AbstractFolder.class)) {
+            index.update(folder.getFullName(), getConfigs(folder));
+        }
+    }
+
+    static Collection<Config> getConfigs(AbstractFolder<?> folder) {
+        FolderConfigFileProperty property = folder.getProperties().get(FolderConfigFileProperty.class);
+        return property != null ? property.getConfigs() : Collections.emptyList();
+    }
+
+    /**
+     * Indexes configs again when their store is saved and drops the memoized
+     * config layers.
+     */
+    @Extension
+    public static class SaveListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof GlobalConfigFiles) {
+                ConfigLayers.invalidate();
+                get().update(null, ((GlobalConfigFiles) o).getConfigs());
+            } else if (o instanceof AbstractFolder) {
+                AbstractFolder<?> folder = (AbstractFolder<?>) o;
+                ConfigLayers.invalidate();
+                get().update(folder.getFullName(), getConfigs(folder));
+            }
+        }
+    }
+
+    /**
+     * Follows folders that are moved or deleted.
+     */
+    @Extension
+    public static class FolderListener extends ItemListener {
+        @Override
+        public void onDeleted(Item item) {
+            if (item instanceof AbstractFolder) {
+                // nested folders are deleted with their parent
+                ConfigLayers.invalidate();
+                get().removeTree(item.getFullName());
+            }
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            if (item instanceof AbstractFolder) {
+                AbstractFolder<?> folder = (AbstractFolder<?>) item;
+                ConfigLayers.invalidate();
+                ConfigFilesIndex index = get();
+                // nested folders are moved with their parent, all configs
+                // below the old name are keyed again by the new full name
+                index.removeTree(oldFullName);
+                index.update(newFullName, getConfigs(folder));
+                for (AbstractFolder<?> subFolder : folder.getAllItems(AbstractFolder.class)) {
+                    index.update(subFolder.getFullName(), getConfigs(subFolder));
+                }
+            }
+        }
+    }
+
+}
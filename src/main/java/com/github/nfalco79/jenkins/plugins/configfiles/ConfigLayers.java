@@ -0,0 +1,238 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.lib.configprovider.model.Config;
+import org.jenkinsci.plugins.configfiles.ConfigFiles;
+
+import com.github.nfalco79.jenkins.plugins.configfiles.ConfigFilesIndex.Ref;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.model.Run;
+
+/**
+ * Resolves config files that extend a parent config.
+ * <p>
+ * A child config inherits the parent content when its own is blank or still
+ * the template a new config is created with, the two contents are never
+ * merged. Parent entries are inherited too, child entries with the same key
+ * replace the inherited ones. Other settings, like the gem API key, are
+ * inherited from the nearest ancestor that sets them.
+ * <p>
+ * The merged content and entries of a config, and the stores its ancestors
+ * come from, are memoized until any config file is saved, so a build neither
+ * walks the folders nor merges the layers again. The merged content is still
+ * expanded and parsed by each build.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+final class ConfigLayers {
+
+    /*
+     * Keys are compared by identity, values are by the item group of the
+     * build, that decides which folder configs the ancestor ids refer to.
+     */
+    private static final Cache<Config, Map<String, Layer<?>>> LAYERS = CacheBuilder.newBuilder().weakKeys().build();
+    // incremented on each invalidation, a layer computed meanwhile is not kept
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private ConfigLayers() {
+    }
+
+    /**
+     * Returns the effective content and entries of the given config and
+     * records the usage of the config and of all its ancestors.
+     *
+     * @param <C> the config type
+     * @param <E> the entry type
+     * @param build a build being run
+     * @param config the config to resolve
+     * @param type the config type, parents must be of the same type
+     * @param template the content new configs are created with, a child
+     *        with this content inherits the parent one
+     * @param entries returns the entries declared by a config
+     * @param key returns the key that identifies an entry
+     * @return the merged layer
+     * @throws AbortException if a parent is missing, of a different type or
+     *         the hierarchy contains a cycle
+     */
+    @NonNull
+    public static <C extends Config & ExtConfig, E> Layer<E> resolve(@NonNull Run<?, ?> build,
+                                                                     @NonNull C config,
+                                                                     @NonNull Class<C> type,
+                                                                     @CheckForNull String template,
+                                                                     @NonNull Function<C, List<E>> entries,
+                                                                     @NonNull Function<E, String> key) throws AbortException {
+        Layer<E> layer = layer(build, config, type, template, entries, key, new HashSet<>());
+
+        // parents are in use as long as a child is, even if never rendered directly
+        ConfigUsage usage = ConfigUsage.get();
+        for (Ref ref : layer.refs) {
+            usage.record(ref);
+        }
+        return layer;
+    }
+
+    /**
+     * Drops all memoized layers, so the next builds resolve again the
+     * ancestors of a config.
+     */
+    public static void invalidate() {
+        GENERATION.incrementAndGet();
+        LAYERS.invalidateAll();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <C extends Config & ExtConfig, E> Layer<E> layer(Run<?, ?> build, C config, Class<C> type, String template, Function<C, List<E>> entries, Function<E, String> key, Set<String> visited) throws AbortException {
+        String context = build.getParent().getParent().getFullName();
+        Map<String, Layer<?>> layers = LAYERS.getIfPresent(config);
+        Layer<E> layer = layers == null ? null : (Layer<E>) layers.get(context);
+        if (layer != null) {
+            return layer;
+        }
+
+        long generation = GENERATION.get();
+        layer = resolve(build, config, type, template, entries, key, visited);
+        LAYERS.asMap().computeIfAbsent(config, k -> new ConcurrentHashMap<>()).put(context, layer);
+        if (GENERATION.get() != generation) {
+            // a config was saved while resolving, the layer may be stale
+            LAYERS.invalidate(config);
+        }
+        return layer;
+    }
+
+    private static <C extends Config & ExtConfig, E> Layer<E> resolve(Run<?, ?> build, C config, Class<C> type, String template, Function<C, List<E>> entries, Function<E, String> key, Set<String> visited) throws AbortException {
+        Ref ref = ConfigUsage.refOf(build, config);
+        String parentId = config.getParentId();
+        if (parentId == null) {
+            return new Layer<>(config.content, entries.apply(config), Collections.emptyMap(), Collections.singletonList(ref));
+        }
+
+        if (!visited.add(config.id)) {
+            throw new AbortException(Messages.ConfigLayers_cycle(config.id));
+        }
+        Config parent = ConfigFiles.getByIdOrNull(build, parentId);
+        if (parent == null) {
+            throw new AbortException(Messages.ConfigLayers_parentNotFound(parentId));
+        }
+        if (!type.isInstance(parent)) {
+            throw new AbortException(Messages.ConfigLayers_invalidParent(parentId));
+        }
+        Layer<E> base = layer(build, type.cast(parent), type, template, entries, key, visited);
+
+        // apply the child delta
+        String content = isUnset(config.content, template) ? base.getContent() : config.content;
+        Map<String, E> merged = new LinkedHashMap<>();
+        for (E entry : base.getEntries()) {
+            merged.put(key.apply(entry), entry);
+        }
+        for (E entry : entries.apply(config)) {
+            merged.put(key.apply(entry), entry);
+        }
+        Map<String, WeakReference<Config>> ancestors = new LinkedHashMap<>(base.ancestors);
+        ancestors.put(parentId, new WeakReference<>(parent));
+        List<Ref> refs = new ArrayList<>(base.refs);
+        refs.add(ref);
+        return new Layer<>(content, Collections.unmodifiableList(new ArrayList<>(merged.values())), ancestors, Collections.unmodifiableList(refs));
+    }
+
+    private static boolean isUnset(String content, String template) {
+        if (StringUtils.isBlank(content)) {
+            return true;
+        }
+        // the form may submit the template with different line endings
+        return template != null && normalize(content).equals(normalize(template));
+    }
+
+    private static String normalize(String content) {
+        return content.replace("\r\n", "\n").trim();
+    }
+
+    /**
+     * The effective content and entries of a config.
+     *
+     * @param <E> the entry type
+     */
+    static final class Layer<E> {
+        private final String content;
+        private final List<E> entries;
+        // the configs this layer was built from, by id, weak to not retain the cache keys
+        private final Map<String, WeakReference<Config>> ancestors;
+        // the stores of the ancestors and of the config itself, from the root
+        private final List<Ref> refs;
+
+        private Layer(String content, List<E> entries, Map<String, WeakReference<Config>> ancestors, List<Ref> refs) {
+            this.content = content;
+            this.entries = entries;
+            this.ancestors = ancestors;
+            this.refs = refs;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public List<E> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Returns a setting of the given config or, when the config does not
+         * set it, of the nearest ancestor that does.
+         *
+         * @param <C> the config type
+         * @param <V> the setting type
+         * @param config the config this layer was resolved for
+         * @param setting returns the setting of a config, {@code null} if not
+         *        set
+         * @return the effective setting
+         */
+        @CheckForNull
+        @SuppressWarnings("unchecked")
+        public <C extends Config, V> V inherit(@NonNull C config, @NonNull Function<C, V> setting) {
+            V value = setting.apply(config);
+            // ancestors are ordered from the root to the direct parent
+            List<WeakReference<Config>> parents = new ArrayList<>(ancestors.values());
+            for (int i = parents.size() - 1; value == null && i >= 0; i--) {
+                Config parent = parents.get(i).get();
+                if (config.getClass().isInstance(parent)) {
+                    value = setting.apply((C) parent);
+                }
+            }
+            return value;
+        }
+    }
+
+}
@@ -0,0 +1,489 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.lib.configprovider.model.Config;
+import org.jenkinsci.plugins.configfiles.ConfigFileStore;
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.jenkinsci.plugins.configfiles.folder.FolderConfigFileProperty;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.json.JsonHttpResponse;
+import org.kohsuke.stapler.verb.GET;
+import org.kohsuke.stapler.verb.POST;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import com.github.nfalco79.jenkins.plugins.configfiles.ConfigFilesIndex.Ref;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.ManagementLink;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Usage statistics of the config files of this plugin.
+ * <p>
+ * Each render of a config, and of the parents it extends, increments its
+ * counter and updates its last used time in memory, statistics are kept per
+ * store and written to disk in background some time later. A config is
+ * tracked since it is saved in its store, or since startup for configs that
+ * already exist. Configs not used since a number of days are listed as cold
+ * at {@code /manage/ext-config-files-usage/cold?days=...} and can be
+ * archived out of their store and restored later.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+@Extension
+public class ConfigUsage extends ManagementLink {
+    private static final Logger LOGGER = Logger.getLogger(ConfigUsage.class.getName());
+
+    private static final long SAVE_DELAY = SystemProperties.getLong(ConfigUsage.class.getName() + ".saveDelay", 60000L);
+    private static final int COLD_DAYS = SystemProperties.getInteger(ConfigUsage.class.getName() + ".coldDays", 90);
+
+    public static ConfigUsage get() {
+        return ExtensionList.lookupSingleton(ConfigUsage.class);
+    }
+
+    private final Map<Ref, Usage> usages = new ConcurrentHashMap<>();
+    private boolean loaded;
+    private boolean scheduled;
+
+    /**
+     * Records a render of the given config.
+     *
+     * @param ref the config reference
+     */
+    public void record(@NonNull Ref ref) {
+        load();
+        long now = System.currentTimeMillis();
+        Usage usage = usages.computeIfAbsent(ref, k -> new Usage(now));
+        usage.count.increment();
+        usage.lastUsed = now;
+        scheduleSave();
+    }
+
+    private void scheduleSave() {
+        synchronized (this) {
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        Timer.get().schedule(this::save, SAVE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the reference of the store that provides the given config to a
+     * build, the nearest folder that defines it or the global store.
+     *
+     * @param build a build
+     * @param config a config visible to the build
+     * @return the config reference
+     */
+    @NonNull
+    static Ref refOf(@NonNull Run<?, ?> build, @NonNull Config config) {
+        ItemGroup<?> group = build.getParent().getParent();
+        while (group instanceof Item) {
+            if (group instanceof AbstractFolder) {
+                AbstractFolder<?> folder = (AbstractFolder<?>) group;
+                FolderConfigFileProperty property = folder.getProperties().get(FolderConfigFileProperty.class);
+                if (property != null && property.getById(config.id) != null) {
+                    return new Ref(folder.getFullName(), config.id);
+                }
+            }
+            group = ((Item) group).getParent();
+        }
+        return new Ref(null, config.id);
+    }
+
+    /**
+     * Returns how many times the given config was rendered.
+     *
+     * @param ref the config reference
+     * @return the number of renders
+     */
+    public long getCount(@NonNull Ref ref) {
+        load();
+        Usage usage = usages.get(ref);
+        return usage != null ? usage.count.sum() : 0;
+    }
+
+    /**
+     * Returns when the given config was rendered last time.
+     *
+     * @param ref the config reference
+     * @return the time in milliseconds or {@code 0} if never used
+     */
+    public long getLastUsed(@NonNull Ref ref) {
+        load();
+        Usage usage = usages.get(ref);
+        return usage != null ? usage.lastUsed : 0;
+    }
+
+    /**
+     * Returns how long ago the given config was rendered last time.
+     *
+     * @param ref the config reference
+     * @return the elapsed time or {@code null} if never used
+     */
+    @CheckForNull
+    public String getLastUsedAge(@NonNull Ref ref) {
+        long lastUsed = getLastUsed(ref);
+        return lastUsed > 0 ? Util.getTimeSpanString(System.currentTimeMillis() - lastUsed) : null;
+    }
+
+    /**
+     * Returns the configs not used since the given number of days.
+     * <p>
+     * A config never used is cold only when it is known since that many
+     * days, so all configs are not reported as cold right after the plugin
+     * starts to record their usage.
+     *
+     * @param days of inactivity
+     * @return the cold configs, least recently used first
+     */
+    @NonNull
+    public List<Ref> getColdConfigs(int days) {
+        load();
+        long threshold = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+
+        List<Ref> cold = new ArrayList<>();
+        addCold(cold, null, GlobalConfigFiles.get().getConfigs(), threshold);
+        for (AbstractFolder<?> folder : Jenkins.get().allItems(AbstractFolder.class)) {
+            FolderConfigFileProperty property = folder.getProperties().get(FolderConfigFileProperty.class);
+            if (property != null) {
+                addCold(cold, folder.getFullName(), property.getConfigs(), threshold);
+            }
+        }
+        cold.sort((r1, r2) -> Long.compare(getLastUsed(r1), getLastUsed(r2)));
+        return cold;
+    }
+
+    private void addCold(List<Ref> cold, String folder, Collection<Config> configs, long threshold) {
+        for (Config config : configs) {
+            if (!(config instanceof ExtConfig)) {
+                continue;
+            }
+            Ref ref = new Ref(folder, config.id);
+            Usage usage = usages.get(ref);
+            // a config not yet seen is going to be seeded by the save listener
+            if (usage != null && Math.max(usage.lastUsed, usage.firstSeen) < threshold) {
+                cold.add(ref);
+            }
+        }
+    }
+
+    /**
+     * Starts to track the given configs of a store, configs already tracked
+     * keep their statistics.
+     *
+     * @param folder the full name of the folder that owns the configs,
+     *        {@code null} for global configs
+     * @param configs the configs of the store
+     */
+    void seen(@CheckForNull String folder, @NonNull Collection<Config> configs) {
+        load();
+        long now = System.currentTimeMillis();
+        boolean changed = false;
+        for (Config config : configs) {
+            if (config instanceof ExtConfig && usages.putIfAbsent(new Ref(folder, config.id), new Usage(now)) == null) {
+                changed = true;
+            }
+        }
+        if (changed) {
+            scheduleSave();
+        }
+    }
+
+    @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+    public static void seenAll() {
+        ConfigUsage usage = get();
+        usage.seen(null, GlobalConfigFiles.get().getConfigs());
+        for (AbstractFolder<?> folder : Jenkins.get().allItems(AbstractFolder.class)) {
+            usage.seen(folder.getFullName(), ConfigFilesIndex.getConfigs(folder));
+        }
+    }
+
+    /**
+     * Tracks the configs added to a store since they are saved.
+     */
+    @Extension
+    public static class SaveListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof GlobalConfigFiles) {
+                get().seen(null, ((GlobalConfigFiles) o).getConfigs());
+            } else if (o instanceof AbstractFolder) {
+                AbstractFolder<?> folder = (AbstractFolder<?>) o;
+                get().seen(folder.getFullName(), ConfigFilesIndex.getConfigs(folder));
+            }
+        }
+    }
+
+    /**
+     * Returns the default number of days after which a config is cold.
+     *
+     * @return the number of days
+     */
+    public int getColdDays() {
+        return COLD_DAYS;
+    }
+
+    @GET
+    public HttpResponse doCold(@QueryParameter Integer days) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        JSONArray result = new JSONArray();
+        for (Ref ref : getColdConfigs(days != null ? days : COLD_DAYS)) {
+            JSONObject json = new JSONObject();
+            json.put("id", ref.getId());
+            if (ref.getFolder() != null) {
+                json.put("folder", ref.getFolder());
+            }
+            json.put("count", getCount(ref));
+            json.put("lastUsed", getLastUsed(ref));
+            result.add(json);
+        }
+        return new JsonHttpResponse(new JSONObject().element("configs", result));
+    }
+
+    @POST
+    public HttpResponse doArchive(@QueryParameter String folder, @QueryParameter String id) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        archive(Util.fixEmptyAndTrim(folder), id);
+        return HttpResponses.redirectToDot();
+    }
+
+    @POST
+    public HttpResponse doRestore(@QueryParameter String folder, @QueryParameter String id) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        restore(Util.fixEmptyAndTrim(folder), id);
+        return HttpResponses.redirectToDot();
+    }
+
+    /**
+     * Moves a config out of its store into the archive folder.
+     *
+     * @param folder the full name of the folder that owns the config,
+     *        {@code null} for global configs
+     * @param id the config identifier
+     * @throws IOException if the config could not be archived
+     */
+    void archive(@CheckForNull String folder, @NonNull String id) throws IOException {
+        ConfigFileStore store = getStore(folder);
+        Config config = store.getById(id);
+        if (!(config instanceof ExtConfig)) {
+            throw new IOException("Config " + id + " not found");
+        }
+        getArchiveFile(new Ref(folder, id)).write(new Archived(folder, id, config));
+        store.remove(id);
+    }
+
+    /**
+     * Moves back an archived config into its store.
+     *
+     * @param folder the full name of the folder that owned the config,
+     *        {@code null} for global configs
+     * @param id the config identifier
+     * @throws IOException if the config could not be restored
+     */
+    void restore(@CheckForNull String folder, @NonNull String id) throws IOException {
+        XmlFile file = getArchiveFile(new Ref(folder, id));
+        if (!file.exists()) {
+            throw new IOException("Archived config " + id + " not found");
+        }
+        getStore(folder).save(((Archived) file.read()).config);
+        file.delete();
+    }
+
+    /**
+     * Returns the archived configs.
+     *
+     * @return the archived config references
+     */
+    @NonNull
+    public List<Ref> getArchivedConfigs() {
+        List<Ref> archived = new ArrayList<>();
+        File[] files = getArchiveFolder().listFiles((dir, name) -> name.endsWith(".xml"));
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    Archived entry = (Archived) new XmlFile(Jenkins.XSTREAM2, file).read();
+                    archived.add(new Ref(entry.folder, entry.id));
+                } catch (IOException | ClassCastException e) {
+                    LOGGER.log(Level.WARNING, "Failed to read archived config " + file, e);
+                }
+            }
+        }
+        return archived;
+    }
+
+    private ConfigFileStore getStore(String folder) throws IOException {
+        if (folder == null) {
+            return GlobalConfigFiles.get();
+        }
+        AbstractFolder<?> item = Jenkins.get().getItemByFullName(folder, AbstractFolder.class);
+        FolderConfigFileProperty property = item != null ? item.getProperties().get(FolderConfigFileProperty.class) : null;
+        if (property == null) {
+            throw new IOException("Folder " + folder + " has no config files");
+        }
+        return property;
+    }
+
+    private File getArchiveFolder() {
+        return new File(Jenkins.get().getRootDir(), "ext-config-files-archive");
+    }
+
+    private XmlFile getArchiveFile(Ref ref) {
+        return new XmlFile(Jenkins.XSTREAM2, new File(getArchiveFolder(), Util.getDigestOf(ref.toString()) + ".xml"));
+    }
+
+    private synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        XmlFile file = getUsageFile();
+        if (file.exists()) {
+            try {
+                @SuppressWarnings("unchecked")
+                Map<String, long[]> stored = (Map<String, long[]>) file.read();
+                for (Map.Entry<String, long[]> entry : stored.entrySet()) {
+                    long[] values = entry.getValue();
+                    Usage usage = new Usage(values.length > 2 ? values[2] : values[1]);
+                    usage.count.add(values[0]);
+                    usage.lastUsed = values[1];
+                    usages.put(fromKey(entry.getKey()), usage);
+                }
+            } catch (IOException | ClassCastException e) {
+                LOGGER.log(Level.WARNING, "Failed to load config files usage", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the statistics to disk.
+     */
+    void save() {
+        synchronized (this) {
+            scheduled = false;
+        }
+        Map<String, long[]> stored = new HashMap<>();
+        for (Map.Entry<Ref, Usage> entry : usages.entrySet()) {
+            Usage usage = entry.getValue();
+            stored.put(toKey(entry.getKey()), new long[] { usage.count.sum(), usage.lastUsed, usage.firstSeen });
+        }
+        try {
+            getUsageFile().write(stored);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save config files usage", e);
+        }
+    }
+
+    private static String toKey(Ref ref) {
+        // a config id never contains a new line, a folder name could contain a slash
+        return ref.getFolder() != null ? ref.getFolder() + '\n' + ref.getId() : ref.getId();
+    }
+
+    private static Ref fromKey(String key) {
+        // keys without folder are global configs, as stored by previous versions
+        int idx = key.lastIndexOf('\n');
+        return idx == -1 ? new Ref(null, key) : new Ref(key.substring(0, idx), key.substring(idx + 1));
+    }
+
+    private XmlFile getUsageFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.get().getRootDir(), ConfigUsage.class.getName() + ".xml"));
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "symbol-settings";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.ConfigUsage_displayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.ConfigUsage_description();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "ext-config-files-usage";
+    }
+
+    private static final class Usage {
+        private final LongAdder count = new LongAdder();
+        private final long firstSeen;
+        private volatile long lastUsed;
+
+        Usage(long firstSeen) {
+            this.firstSeen = firstSeen;
+        }
+    }
+
+    /**
+     * An archived config with the folder it belongs to.
+     */
+    private static final class Archived {
+        private final String folder;
+        private final String id;
+        private final Config config;
+
+        Archived(String folder, String id, Config config) {
+            this.folder = folder;
+            this.id = id;
+            this.config = config;
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.lib.configprovider.model.Config;
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.jenkinsci.plugins.configfiles.folder.FolderConfigFileProperty;
+import org.kohsuke.stapler.StaplerResponse2;
+import org.kohsuke.stapler.verb.POST;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import com.github.nfalco79.jenkins.plugins.configfiles.ConfigFilesIndex.Ref;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.RootAction;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import net.sf.json.JSONSerializer;
+
+/**
+ * Verifies all config files of this plugin at once.
+ * <p>
+ * The content of each config is parsed and its entries are verified on a
+ * bounded pool of threads. A POST to {@code /ext-config-files-verify/run}
+ * streams a line for each verified config as soon as it is done, followed by
+ * a summary.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+@Extension
+public class ConfigVerifier implements RootAction {
+
+    private static final ExecutorService POOL = createPool();
+
+    private static ExecutorService createPool() {
+        int size = SystemProperties.getInteger(ConfigVerifier.class.getName() + ".poolSize", Runtime.getRuntime().availableProcessors());
+        int queueSize = SystemProperties.getInteger(ConfigVerifier.class.getName() + ".queueSize", 100);
+        // when the queue is full the requesting thread verifies the config
+        // itself, so a large number of configs slows down the submission
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), //
+                new NamingThreadFactory(new DaemonThreadFactory(), ConfigVerifier.class.getSimpleName()), //
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Returns the reason why the given config is not valid.
+     *
+     * @param config to verify
+     * @return the error message or {@code null} if the config is valid
+     */
+    @CheckForNull
+    static String verify(@NonNull Config config) {
+        try {
+            if (config instanceof DockerConfig) {
+                if (StringUtils.isNotBlank(config.content)) {
+                    JSONSerializer.toJSON(config.content);
+                }
+                ((DockerConfig) config).doVerify();
+            } else if (config instanceof PyPIConfig) {
+                new PyPIrc().from(config.content);
+                ((PyPIConfig) config).doVerify();
+            } else if (config instanceof GemConfig) {
+                new Gemrc().from(config.content);
+                ((GemConfig) config).doVerify();
+            }
+            return null;
+        } catch (VerifyConfigProviderException e) {
+            return e.getMessage();
+        } catch (Exception e) { // NOSONAR
+            // parse errors of any kind
+            return e.toString();
+        }
+    }
+
+    /**
+     * Verifies all configs in parallel.
+     *
+     * @param listener notified in the calling thread for each verified
+     *        config, the value is the error message or {@code null} if the
+     *        config is valid
+     * @return the number of verified configs
+     * @throws InterruptedException if interrupted while waiting the
+     *         verifications
+     */
+    int verifyAll(@NonNull Consumer<Map.Entry<Ref, String>> listener) throws InterruptedException {
+        Map<Ref, Config> configs = new LinkedHashMap<>();
+        collect(configs, null, GlobalConfigFiles.get().getConfigs());
+        for (AbstractFolder<?> folder : Jenkins.get().allItems(AbstractFolder.class)) {
+            FolderConfigFileProperty property = folder.getProperties().get(FolderConfigFileProperty.class);
+            if (property != null) {
+                collect(configs, folder.getFullName(), property.getConfigs());
+            }
+        }
+
+        CompletionService<Map.Entry<Ref, String>> completion = new ExecutorCompletionService<>(POOL);
+        List<Future<Map.Entry<Ref, String>>> futures = new ArrayList<>(configs.size());
+        int notified = 0;
+        try {
+            for (Map.Entry<Ref, Config> config : configs.entrySet()) {
+                futures.add(completion.submit(() -> new AbstractMap.SimpleImmutableEntry<>(config.getKey(), verify(config.getValue()))));
+                // stream the results already done while still submitting,
+                // also those verified by this thread when the queue is full
+                Future<Map.Entry<Ref, String>> done;
+                while ((done = completion.poll()) != null) {
+                    report(listener, done);
+                    notified++;
+                }
+            }
+            for (; notified < futures.size(); notified++) {
+                report(listener, completion.take());
+            }
+        } finally {
+            for (Future<?> future : futures) {
+                if (!future.isDone()) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return configs.size();
+    }
+
+    private static void report(Consumer<Map.Entry<Ref, String>> listener, Future<Map.Entry<Ref, String>> done) throws InterruptedException {
+        try {
+            listener.accept(done.get());
+        } catch (ExecutionException e) {
+            // verify never throws
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static void collect(Map<Ref, Config> configs, String folder, Iterable<Config> current) {
+        for (Config config : current) {
+            if (config instanceof ExtConfig) {
+                configs.put(new Ref(folder, config.id), config);
+            }
+        }
+    }
+
+    @POST
+    public void doRun(StaplerResponse2 rsp) throws IOException, InterruptedException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        rsp.setContentType("text/plain;charset=UTF-8");
+        PrintWriter writer = rsp.getWriter();
+        int[] failures = new int[1];
+        int total = verifyAll(result -> {
+            if (result.getValue() == null) {
+                writer.println("OK   " + result.getKey());
+            } else {
+                failures[0]++;
+                writer.println("FAIL " + result.getKey() + ": " + result.getValue());
+            }
+            // progress is visible while the other configs are verified
+            writer.flush();
+        });
+        writer.println(Messages.ConfigVerifier_summary(total, failures[0]));
+        writer.flush();
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.ConfigVerifier_displayName();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "ext-config-files-verify";
+    }
+
+}
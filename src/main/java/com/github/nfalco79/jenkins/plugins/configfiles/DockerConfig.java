@@ -19,7 +19,7 @@ package com.github.nfalco79.jenkins.plugins.configfiles;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -28,16 +28,28 @@ import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.lib.configprovider.model.Config;
 import org.jenkinsci.plugins.configfiles.json.JsonConfig;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
 
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.github.nfalco79.jenkins.plugins.configfiles.ConfigLayers.Layer;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.BuildSecrets;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsLookup;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsResolver;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.VariableTemplate;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.VariableTemplate.Format;
+import com.google.common.collect.ImmutableList;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.AbortException;
+import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Util;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.util.FormValidation;
 
 /**
  * A config/provider to handle the special case of a docker config file.
@@ -45,15 +57,21 @@ import hudson.model.TaskListener;
  * @author Nikolas Falco
  * @since 1.0.3
  */
-public class DockerConfig extends JsonConfig {
+public class DockerConfig extends JsonConfig implements ExtConfig {
     private static final long serialVersionUID = 1L;
 
-    private final List<DockerRegistry> registries;
+    // immutable; setBulkRegistries publishes a new list to running builds
+    private volatile List<DockerRegistry> registries;
+    private boolean inMemory;
+    private boolean inEnvironment;
+    private boolean expandVariables;
+    private boolean mergeExisting;
+    private String parentId;
 
     @DataBoundConstructor
     public DockerConfig(@NonNull String id, String name, String comment, String content, List<DockerRegistry> registries) {
         super(id, Util.fixEmptyAndTrim(name), Util.fixEmptyAndTrim(comment), content == null ? "" : content);
-        this.registries = registries == null ? new ArrayList<>(3) : registries;
+        this.registries = registries == null ? ImmutableList.of() : ImmutableList.copyOf(registries);
     }
 
 
@@ -61,6 +79,100 @@ public class DockerConfig extends JsonConfig {
         return registries;
     }
 
+    /**
+     * Returns the registries in text form, one per line.
+     *
+     * @return the text form of registries
+     */
+    public String getBulkRegistries() {
+        return BulkEntries.format(registries, r -> new String[] { r.getUrl(), r.getCredentialsId() });
+    }
+
+    /**
+     * Adds the given registries in text form, replacing those with the same key.
+     *
+     * @param bulkRegistries the registries in text form, one per line
+     * @throws IllegalArgumentException if a line has not enough fields
+     */
+    @DataBoundSetter
+    public void setBulkRegistries(String bulkRegistries) {
+        registries = ImmutableList.copyOf(BulkEntries.merge(registries, bulkRegistries, 1, fields -> new DockerRegistry(fields[0], BulkEntries.field(fields, 1)), DockerRegistry::getUrl));
+    }
+
+    /**
+     * Returns if this config has too many registries to edit them one by one.
+     *
+     * @return {@code true} if registries are edited only in text form
+     */
+    public boolean isBulkEdit() {
+        return BulkEntries.isBulk(registries);
+    }
+
+    /**
+     * Replaces the registries loaded from disk with an immutable copy.
+     *
+     * @return this instance
+     */
+    protected Object readResolve() {
+        registries = registries == null ? ImmutableList.of() : ImmutableList.copyOf(registries);
+        return this;
+    }
+
+    @Override
+    public boolean isInMemory() {
+        return inMemory;
+    }
+
+    @DataBoundSetter
+    public void setInMemory(boolean inMemory) {
+        this.inMemory = inMemory;
+    }
+
+    @Override
+    public boolean isInEnvironment() {
+        return inEnvironment;
+    }
+
+    @DataBoundSetter
+    public void setInEnvironment(boolean inEnvironment) {
+        this.inEnvironment = inEnvironment;
+    }
+
+    /**
+     * Returns if the rendered {@code auths} should be merged into the docker
+     * config already on the node instead of writing a new file.
+     *
+     * @return {@code true} to preserve the other settings of the node
+     */
+    public boolean isMergeExisting() {
+        return mergeExisting;
+    }
+
+    @DataBoundSetter
+    public void setMergeExisting(boolean mergeExisting) {
+        this.mergeExisting = mergeExisting;
+    }
+
+    @Override
+    public boolean isExpandVariables() {
+        return expandVariables;
+    }
+
+    @DataBoundSetter
+    public void setExpandVariables(boolean expandVariables) {
+        this.expandVariables = expandVariables;
+    }
+
+    @Override
+    public String getParentId() {
+        return parentId;
+    }
+
+    @DataBoundSetter
+    public void setParentId(String parentId) {
+        this.parentId = Util.fixEmptyAndTrim(parentId);
+    }
+
     /**
      * Perform a validation of the configuration.
      * <p>
@@ -77,7 +189,9 @@ public class DockerConfig extends JsonConfig {
     }
 
     @Extension
-    public static class DockerConfigProvider extends JsonConfigProvider {
+    public static class DockerConfigProvider extends JsonConfigProvider implements ExtConfigProvider {
+
+        private transient volatile String template;
 
         @Override
         public String getDisplayName() {
@@ -89,28 +203,67 @@ public class DockerConfig extends JsonConfig {
             return new DockerConfig(configId, "MyDockerConfig", "user config", loadTemplateContent(), null);
         }
 
+        @POST
+        public FormValidation doCheckBulkRegistries(@QueryParameter String bulkRegistries) {
+            return BulkEntries.validate(bulkRegistries, 1);
+        }
+
         protected String loadTemplateContent() {
-            try (InputStream is = this.getClass().getResourceAsStream("template.dockerconfig")) {
-                return IOUtils.toString(is, StandardCharsets.UTF_8);
-            } catch (IOException e) { // NOSONAR
-                return null;
+            // the template never changes, read it once
+            String content = template;
+            if (content == null) {
+                try (InputStream is = this.getClass().getResourceAsStream("template.dockerconfig")) {
+                    content = IOUtils.toString(is, StandardCharsets.UTF_8);
+                    template = content;
+                } catch (IOException e) { // NOSONAR
+                    return null;
+                }
             }
+            return content;
         }
 
         @Override
         public String supplyContent(Config configFile, Run<?, ?> build, FilePath workDir, TaskListener listener, List<String> tempFiles) throws IOException {
+            // the build environment is computed only when it is used
+            EnvVars env = new EnvVars();
+            if (configFile instanceof ExtConfig && ((ExtConfig) configFile).isExpandVariables()) {
+                try {
+                    env = build.getEnvironment(listener);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            // the config file provider writes a whole file, never a patch
+            return render(configFile, build, listener, CredentialsLookup.get(), env, false);
+        }
+
+        @Override
+        public String render(Config configFile, Run<?, ?> build, TaskListener listener, CredentialsResolver resolver, EnvVars env) throws IOException {
+            boolean patch = configFile instanceof DockerConfig && ((DockerConfig) configFile).isMergeExisting() && !((DockerConfig) configFile).isInEnvironment();
+            return render(configFile, build, listener, resolver, env, patch);
+        }
+
+        private String render(Config configFile, Run<?, ?> build, TaskListener listener, CredentialsResolver resolver, EnvVars env, boolean patch) throws IOException {
             String fileContent = configFile.content;
             if (configFile instanceof DockerConfig) {
                 DockerConfig config = (DockerConfig) configFile;
 
-                List<DockerRegistry> registries = config.getRegistries();
+                Layer<DockerRegistry> layer = ConfigLayers.resolve(build, config, DockerConfig.class, loadTemplateContent(), DockerConfig::getRegistries, DockerRegistry::getUrl);
+                // variables are expanded only in configs that opt in, a literal ${...} is kept otherwise
+                Map<String, String> values = config.isExpandVariables() ? env : Collections.<String, String> emptyMap();
+                // templates are compiled once per config version, a patch
+                // carries only the auths and the node keeps its other settings
+                fileContent = patch ? "{}" : VariableTemplate.expand(layer.getContent(), values, Format.JSON);
+                List<DockerRegistry> registries = VariableTemplate.expand(layer.getEntries(), DockerRegistry::getUrl, (registry, url) -> new DockerRegistry(url, VariableTemplate.hasFixedHost(registry.getUrl()) ? registry.getCredentialsId() : null), values);
 
                 if (!registries.isEmpty()) {
                     listener.getLogger().println("Adding all server entries");
 
-                    DockerConfigHelper helper = new DockerConfigHelper(config.getRegistries());
-                    Map<String, StandardUsernamePasswordCredentials> source2Credentials = helper.resolveCredentials(build);
+                    DockerConfigHelper helper = new DockerConfigHelper(registries);
+                    Map<String, StandardUsernamePasswordCredentials> source2Credentials = helper.resolveCredentials(build, resolver);
                     fileContent = helper.fillRegistries(fileContent, source2Credentials);
+                    BuildSecrets.of(build).addAll(helper.getSecrets());
                 }
 
                 try {
@@ -16,27 +16,25 @@
  */
 package com.github.nfalco79.jenkins.plugins.configfiles;
 
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
-import com.cloudbees.plugins.credentials.domains.HostnameRequirement;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsLookup;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsResolver;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.ExpiringCredentialsCache;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.ExpiringCredentialsSource.Token;
 
-import edu.umd.cs.findbugs.annotations.CheckForNull;
-import edu.umd.cs.findbugs.annotations.Nullable;
-import hudson.Util;
 import hudson.model.Run;
 import hudson.util.Secret;
 import net.sf.json.JSON;
@@ -54,9 +52,11 @@ public final class DockerConfigHelper {
     private static final String AUTHS_ELEMENT = "auths";
 
     private final Collection<DockerRegistry> registries;
+    private final Set<String> secrets = new LinkedHashSet<>();
 
     public DockerConfigHelper(List<DockerRegistry> registries) {
-        this.registries = new ArrayList<>(registries);
+        // configs expose read only entries, no need of a copy
+        this.registries = registries;
     }
 
     /**
@@ -67,20 +67,28 @@ public final class DockerConfigHelper {
      * @return map of registry URL - credential
      */
     public Map<String, StandardUsernamePasswordCredentials> resolveCredentials(Run<?, ?> build) {
+        return resolveCredentials(build, CredentialsLookup.get());
+    }
+
+    /**
+     * Resolves all source credentials through the given resolver and returns a
+     * map paring registry URL to credential.
+     *
+     * @param build a build being run
+     * @param resolver the strategy to lookup credentials
+     * @return map of registry URL - credential
+     */
+    public Map<String, StandardUsernamePasswordCredentials> resolveCredentials(Run<?, ?> build, CredentialsResolver resolver) {
         Map<String, StandardUsernamePasswordCredentials> source2credential = new HashMap<>();
 
         for (DockerRegistry registry : registries) {
             String credentialsId = registry.getCredentialsId();
             if (credentialsId != null) {
 
-                // create a domain filter based on registry URL
-                final URL serverURL = toURL(registry.getUrl());
-                List<DomainRequirement> domainRequirements = Collections.emptyList();
-                if (serverURL != null) {
-                    domainRequirements = Collections.<DomainRequirement> singletonList(new HostnameRequirement(serverURL.getHost()));
-                }
+                // domain filter based on registry URL is computed once per registry
+                List<DomainRequirement> domainRequirements = registry.getEndpoint().getDomainRequirements();
 
-                StandardUsernamePasswordCredentials c = CredentialsProvider.findCredentialById(credentialsId, StandardUsernamePasswordCredentials.class, build, domainRequirements);
+                StandardUsernamePasswordCredentials c = resolver.findCredentialById(credentialsId, StandardUsernamePasswordCredentials.class, build, domainRequirements);
                 if (c != null) {
                     source2credential.put(registry.getUrl(), c);
                 }
@@ -97,8 +105,10 @@ public final class DockerConfigHelper {
      *        config (key: registry URL, value: Jenkins credentials)
      * @return the updated content of the {@code gemContent} with the sources
      *         credentials added
+     * @throws IOException in case the token of some credentials can not be
+     *         obtained
      */
-    public String fillRegistries(String content, Map<String, StandardUsernamePasswordCredentials> registry2Credentials) {
+    public String fillRegistries(String content, Map<String, StandardUsernamePasswordCredentials> registry2Credentials) throws IOException {
         if (registry2Credentials.isEmpty()) {
             return content;
         }
@@ -126,7 +136,11 @@ public final class DockerConfigHelper {
 
             StandardUsernamePasswordCredentials credentials = registry2Credentials.get(url);
             if (credentials != null) {
-                String token = credentials.getUsername() + ":" + Secret.toString(credentials.getPassword());
+                Token expiringToken = ExpiringCredentialsCache.get().getToken(credentials);
+                String password = Secret.toString(expiringToken.getPassword());
+                String token = expiringToken.getUsername() + ":" + password;
+                secrets.add(password);
+                secrets.add(token);
                 token = Base64.getEncoder().encodeToString(token.getBytes(StandardCharsets.UTF_8));
 
                 JSONObject auth = auths.optJSONObject(url);
@@ -142,20 +156,13 @@ public final class DockerConfigHelper {
         return dockerConfig.toString(4);
     }
 
-    @CheckForNull
-    private static URL toURL(@Nullable final String url) {
-        URL result = null;
-
-        String fixedURL = Util.fixEmptyAndTrim(url);
-        if (fixedURL != null) {
-            try {
-                return new URL(fixedURL);
-            } catch (MalformedURLException e) {
-                // no filter based on hostname
-            }
-        }
-
-        return result;
+    /**
+     * Returns the secrets written in the user config by this helper.
+     *
+     * @return the injected passwords and tokens
+     */
+    public Set<String> getSecrets() {
+        return secrets;
     }
 
 }
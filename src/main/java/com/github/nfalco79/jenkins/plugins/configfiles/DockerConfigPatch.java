@@ -0,0 +1,360 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.sf.json.JSON;
+import net.sf.json.JSONObject;
+import net.sf.json.JSONSerializer;
+
+/**
+ * Merges the rendered {@code auths} of a docker config into an existing
+ * docker config.
+ * <p>
+ * The patch is built on the controller and applied on the node. The
+ * existing content is not parsed into a JSON model, its text is copied as it
+ * is while scanned and only the members present in the patch are replaced
+ * or appended, so any other setting of the node, like {@code credsStore} or
+ * {@code proxies}, and its formatting are preserved.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+final class DockerConfigPatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final LinkedHashMap<String, Object> members;
+
+    private DockerConfigPatch(LinkedHashMap<String, Object> members) {
+        this.members = members;
+    }
+
+    /**
+     * Creates a patch from a rendered docker config.
+     *
+     * @param content the rendered docker config
+     * @return the patch of the given content
+     * @throws IllegalArgumentException if the content is not a JSON object
+     */
+    @NonNull
+    static DockerConfigPatch of(@CheckForNull String content) {
+        JSON json = StringUtils.isNotBlank(content) ? JSONSerializer.toJSON(content) : new JSONObject();
+        if (!(json instanceof JSONObject)) {
+            throw new IllegalArgumentException("docker config is not a JSON object");
+        }
+        return new DockerConfigPatch(toMap((JSONObject) json));
+    }
+
+    private static LinkedHashMap<String, Object> toMap(JSONObject json) {
+        LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+        for (Iterator<?> it = json.keys(); it.hasNext();) {
+            String key = (String) it.next();
+            Object value = json.get(key);
+            if (value instanceof JSONObject && !((JSONObject) value).isNullObject()) {
+                map.put(key, toMap((JSONObject) value));
+            } else if (value instanceof String) {
+                map.put(key, value);
+            } else {
+                // arrays, numbers, booleans and null are written as they are
+                map.put(key, new Literal(value instanceof JSON ? value.toString() : String.valueOf(value)));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Applies this patch to the given docker config.
+     *
+     * @param content the existing docker config, could be {@code null} if
+     *        the node has none
+     * @return the merged content
+     * @throws IOException if the existing content is not a JSON object
+     */
+    @NonNull
+    String apply(@CheckForNull String content) throws IOException {
+        if (StringUtils.isBlank(content)) {
+            StringBuilder out = new StringBuilder();
+            writeObject(out, members, "\n", "\t");
+            return out.append('\n').toString();
+        }
+        Scanner scanner = new Scanner(content);
+        scanner.copyWhitespaces();
+        if (!scanner.at('{')) {
+            throw new IOException("docker config is not a JSON object");
+        }
+        scanner.patchObject(members, "\n", null);
+        scanner.copyWhitespaces();
+        if (!scanner.atEnd()) {
+            throw scanner.error();
+        }
+        return scanner.out.toString();
+    }
+
+    private static void writeValue(StringBuilder out, Object value, String separator, String unit) {
+        if (value instanceof Map) {
+            writeObject(out, (Map<?, ?>) value, separator, unit);
+        } else if (value instanceof Literal) {
+            out.append(((Literal) value).json);
+        } else {
+            writeString(out, (String) value);
+        }
+    }
+
+    private static void writeObject(StringBuilder out, Map<?, ?> object, String separator, String unit) {
+        out.append('{');
+        String memberSeparator = separator + unit;
+        boolean first = true;
+        for (Map.Entry<?, ?> member : object.entrySet()) {
+            out.append(first ? "" : ",").append(memberSeparator);
+            writeString(out, (String) member.getKey());
+            out.append(": ");
+            writeValue(out, member.getValue(), memberSeparator, unit);
+            first = false;
+        }
+        out.append(first ? "" : separator).append('}');
+    }
+
+    private static void writeString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * A JSON value that is not an object nor a string, kept as JSON text.
+     */
+    private static final class Literal implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String json;
+
+        Literal(String json) {
+            this.json = json;
+        }
+    }
+
+    /**
+     * Copies the existing content while scanning it, a member whose key is
+     * in the patch has its value replaced, or merged if both are objects.
+     */
+    private static class Scanner {
+        private final String in;
+        private final StringBuilder out;
+        private int pos;
+
+        Scanner(String in) {
+            this.in = in;
+            this.out = new StringBuilder(in.length() + 256);
+        }
+
+        void patchObject(Map<String, Object> patch, String parentSeparator, String unit) throws IOException {
+            Set<String> missing = new LinkedHashSet<>(patch.keySet());
+            // new members reuse the separator and indentation of existing ones
+            String separator = null;
+            int end;
+
+            expect('{');
+            int afterOpen = out.length();
+            copyWhitespaces();
+            if (at('}')) {
+                end = afterOpen;
+            } else {
+                separator = out.substring(afterOpen);
+                if (unit == null) {
+                    unit = separator.indexOf('\n') == -1 ? "" : separator.substring(separator.lastIndexOf('\n') + 1);
+                }
+                while (true) {
+                    String key = copyString();
+                    copyWhitespaces();
+                    expect(':');
+                    copyWhitespaces();
+
+                    Object value = patch.get(key);
+                    if (value == null) {
+                        copyValue();
+                    } else {
+                        missing.remove(key);
+                        if (value instanceof Map && at('{')) {
+                            @SuppressWarnings("unchecked")
+                            Map<String, Object> nested = (Map<String, Object>) value;
+                            patchObject(nested, separator, unit);
+                        } else {
+                            int start = out.length();
+                            copyValue();
+                            out.setLength(start);
+                            writeValue(out, value, separator, unit);
+                        }
+                    }
+                    end = out.length();
+                    copyWhitespaces();
+                    if (!at(',')) {
+                        break;
+                    }
+                    expect(',');
+                    copyWhitespaces();
+                }
+            }
+
+            if (!missing.isEmpty()) {
+                if (unit == null) {
+                    unit = "\t";
+                }
+                String memberSeparator = separator != null ? separator : parentSeparator + unit;
+                StringBuilder added = new StringBuilder();
+                for (String key : missing) {
+                    added.append(separator != null || added.length() > 0 ? "," : "").append(memberSeparator);
+                    writeString(added, key);
+                    added.append(": ");
+                    writeValue(added, patch.get(key), memberSeparator, unit);
+                }
+                if (separator == null) {
+                    // the object was empty
+                    added.append(parentSeparator);
+                }
+                out.insert(end, added);
+            }
+            expect('}');
+        }
+
+        private String copyString() throws IOException {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (pos < in.length()) {
+                char c = in.charAt(pos++);
+                out.append(c);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c == '\\') {
+                    if (pos >= in.length()) {
+                        break;
+                    }
+                    char escaped = in.charAt(pos++);
+                    out.append(escaped);
+                    switch (escaped) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > in.length()) {
+                            throw error();
+                        }
+                        String hex = in.substring(pos, pos + 4);
+                        out.append(hex);
+                        pos += 4;
+                        try {
+                            value.append((char) Integer.parseInt(hex, 16));
+                        } catch (NumberFormatException e) {
+                            throw error();
+                        }
+                        break;
+                    default: value.append(escaped);
+                    }
+                } else {
+                    value.append(c);
+                }
+            }
+            throw error();
+        }
+
+        private void copyValue() throws IOException {
+            if (at('"')) {
+                copyString();
+            } else if (at('{') || at('[')) {
+                char close = at('{') ? '}' : ']';
+                out.append(in.charAt(pos++));
+                copyWhitespaces();
+                if (!at(close)) {
+                    while (true) {
+                        if (close == '}') {
+                            copyString();
+                            copyWhitespaces();
+                            expect(':');
+                            copyWhitespaces();
+                        }
+                        copyValue();
+                        copyWhitespaces();
+                        if (!at(',')) {
+                            break;
+                        }
+                        expect(',');
+                        copyWhitespaces();
+                    }
+                }
+                expect(close);
+            } else {
+                // number, true, false or null
+                int start = pos;
+                while (pos < in.length() && "{}[],:\" \t\r\n".indexOf(in.charAt(pos)) == -1) {
+                    pos++;
+                }
+                if (start == pos) {
+                    throw error();
+                }
+                out.append(in, start, pos);
+            }
+        }
+
+        void copyWhitespaces() {
+            while (pos < in.length() && Character.isWhitespace(in.charAt(pos))) {
+                out.append(in.charAt(pos++));
+            }
+        }
+
+        boolean at(char c) {
+            return pos < in.length() && in.charAt(pos) == c;
+        }
+
+        boolean atEnd() {
+            return pos >= in.length();
+        }
+
+        private void expect(char c) throws IOException {
+            if (!at(c)) {
+                throw error();
+            }
+            out.append(in.charAt(pos++));
+        }
+
+        IOException error() {
+            return new IOException("docker config is not valid JSON at offset " + pos);
+        }
+    }
+
+}
@@ -17,12 +17,11 @@
 package com.github.nfalco79.jenkins.plugins.configfiles;
 
 import java.io.Serializable;
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
@@ -32,6 +31,7 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.verb.POST;
 
 import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsUtil;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.RegistryEndpoint;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -64,6 +64,7 @@ public class DockerRegistry extends AbstractDescribableImpl<DockerRegistry> impl
 
     private final String url;
     private final String credentialsId;
+    private transient RegistryEndpoint endpoint;
 
     /**
      * Default constructor.
@@ -75,6 +76,7 @@ public class DockerRegistry extends AbstractDescribableImpl<DockerRegistry> impl
     public DockerRegistry(@NonNull String url, @NonNull String credentialsId) {
         this.url = Util.fixEmpty(url);
         this.credentialsId = Util.fixEmpty(credentialsId);
+        this.endpoint = RegistryEndpoint.of(this.url);
     }
 
     /**
@@ -97,6 +99,26 @@ public class DockerRegistry extends AbstractDescribableImpl<DockerRegistry> impl
         return credentialsId;
     }
 
+    /**
+     * Get the parsed server URL.
+     *
+     * @return the endpoint of this server
+     */
+    @NonNull
+    public RegistryEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Parses again the URL after deserialization.
+     *
+     * @return this instance
+     */
+    protected Object readResolve() {
+        endpoint = RegistryEndpoint.of(url);
+        return this;
+    }
+
     /**
      * Perform the validation of current registry.
      * <p>
@@ -124,6 +146,26 @@ public class DockerRegistry extends AbstractDescribableImpl<DockerRegistry> impl
         return "url: " + url + (credentialsId != null ? " credentialId: " + credentialsId : "");
     }
 
+    /**
+     * Stores this entry in a compact form, reads also the legacy layout.
+     */
+    public static final class ConverterImpl extends CompactEntryConverter<DockerRegistry> {
+
+        public ConverterImpl() {
+            super(DockerRegistry.class, "url", "credentialsId");
+        }
+
+        @Override
+        protected String[] values(DockerRegistry entry) {
+            return new String[] { entry.url, entry.credentialsId };
+        }
+
+        @Override
+        protected DockerRegistry create(Map<String, String> values) {
+            return new DockerRegistry(values.get("url"), values.get("credentialsId"));
+        }
+    }
+
     @Extension
     public static class DescriptorImpl extends Descriptor<DockerRegistry> {
         private static List<String> supportedProtocols = Arrays.asList("http", "https");
@@ -146,15 +188,31 @@ public class DockerRegistry extends AbstractDescribableImpl<DockerRegistry> impl
                 return FormValidation.error(Messages.emptyServerURL());
             }
 
-            // test malformed URL
-            URL registry = toURL(url.toLowerCase());
-            if (!variableRegExp.matcher(url).find() && registry == null) {
+            // test malformed URL, the protocol could be omitted
+            RegistryEndpoint registry = RegistryEndpoint.of(url.toLowerCase());
+            boolean valid = registry.isValid() ? supportedProtocols.contains(registry.getProtocol()) : isHost(url);
+            if (!variableRegExp.matcher(url).find() && !valid) {
                 return FormValidation.error(Messages.invalidServerURL());
             }
 
             return FormValidation.ok();
         }
 
+        /*
+         * A registry without protocol must be at least a valid authority with
+         * an optional path, like docker.acme.com:5000/repo
+         */
+        private static boolean isHost(@NonNull String url) {
+            if (url.contains("://")) {
+                return false;
+            }
+            try {
+                return new URI("https://" + url.trim()).getHost() != null;
+            } catch (URISyntaxException e) {
+                return false;
+            }
+        }
+
         @POST
         public FormValidation doCheckCredentialsId(@CheckForNull @AncestorInPath Item projectOrFolder,
                                                    @QueryParameter String credentialsId,
@@ -175,27 +233,6 @@ public class DockerRegistry extends AbstractDescribableImpl<DockerRegistry> impl
             return "";
         }
 
-        private static URL toURL(final String url) {
-            URL result = null;
-
-            String fixedURL = Util.fixEmptyAndTrim(url);
-            if (fixedURL != null) {
-                try {
-                    URI uri = new URI(fixedURL);
-                    String scheme = uri.getScheme();
-                    if (scheme == null) {
-                        return new URL("http", fixedURL, "");
-                    } else if (supportedProtocols.contains(scheme)) {
-                        return new URL(fixedURL);
-                    }
-                } catch (MalformedURLException | URISyntaxException e) {
-                    // no filter based on hostname
-                }
-            }
-
-            return result;
-        }
-
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+/**
+ * Options common to all config files managed by this plugin.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public interface ExtConfig {
+
+    /**
+     * Returns if the rendered file should be written on a RAM-backed
+     * filesystem of the node when available.
+     *
+     * @return {@code true} to avoid write the file on the node disk
+     */
+    boolean isInMemory();
+
+    /**
+     * Returns if the rendered content should be provided as value of the
+     * managed file variable instead of writing a file on the node.
+     * <p>
+     * Only configs whose tool reads the whole content from a variable, like
+     * {@code DOCKER_AUTH_CONFIG}, support this mode.
+     *
+     * @return {@code true} to provide the content as environment variable
+     */
+    default boolean isInEnvironment() {
+        return false;
+    }
+
+    /**
+     * Returns if {@code ${NAME}} variables in the content and in the entry
+     * URLs are expanded with the build environment.
+     *
+     * @return {@code true} to expand variables, otherwise the text is
+     *         written as it is
+     */
+    boolean isExpandVariables();
+
+    /**
+     * Returns the identifier of the config this config extends.
+     *
+     * @return the parent config identifier or {@code null} if this config has
+     *         no parent
+     */
+    @CheckForNull
+    String getParentId();
+
+}
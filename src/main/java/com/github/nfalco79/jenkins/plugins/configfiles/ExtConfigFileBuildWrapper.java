@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.jenkinsci.Symbol;
+import org.jenkinsci.plugins.configfiles.buildwrapper.ManagedFile;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import com.github.nfalco79.jenkins.plugins.configfiles.util.BuildSecrets;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.console.ConsoleLogFilter;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildWrapperDescriptor;
+import jenkins.tasks.SimpleBuildWrapper;
+
+/**
+ * Provides config files to a build.
+ * <p>
+ * Differently from the config file provider build wrapper, this wrapper
+ * decides where the rendered files are written, so config marked in memory
+ * are written on a RAM-backed filesystem of the node. All config files are
+ * rendered together, sharing credentials lookups, and written on the node
+ * in a single call.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public class ExtConfigFileBuildWrapper extends SimpleBuildWrapper {
+
+    private final List<ManagedFile> managedFiles;
+
+    @DataBoundConstructor
+    public ExtConfigFileBuildWrapper(List<ManagedFile> managedFiles) {
+        this.managedFiles = managedFiles == null ? Collections.emptyList() : managedFiles;
+    }
+
+    public List<ManagedFile> getManagedFiles() {
+        return managedFiles;
+    }
+
+    @Override
+    public void setUp(Context context, Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars initialEnvironment) throws IOException, InterruptedException {
+        List<String> tempFiles = new ArrayList<>();
+        context.setDisposer(new TempFilesDisposer(tempFiles));
+
+        ConfigFileProvisioner provisioner = new ConfigFileProvisioner(managedFiles);
+        Map<String, String> variable2File;
+        try {
+            variable2File = provisioner.provision(build, workspace, listener, initialEnvironment, tempFiles);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            // the disposer is not called when the set up fails
+            try {
+                ConfigFileProvisioner.cleanup(build, workspace, tempFiles);
+            } catch (IOException | InterruptedException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        for (Map.Entry<String, String> entry : variable2File.entrySet()) {
+            context.env(entry.getKey(), entry.getValue());
+        }
+        Set<String> sensitiveVariables = provisioner.getSensitiveVariables();
+        if (!sensitiveVariables.isEmpty()) {
+            SensitiveVariablesAction action = build.getAction(SensitiveVariablesAction.class);
+            if (action == null) {
+                build.addAction(new SensitiveVariablesAction(sensitiveVariables));
+            } else {
+                action.variables.addAll(sensitiveVariables);
+            }
+        }
+    }
+
+    @Override
+    public ConsoleLogFilter createLoggerDecorator(@NonNull Run<?, ?> build) {
+        // the secrets are registered later, while the files are rendered
+        return BuildSecrets.newLogFilter();
+    }
+
+    @Override
+    public void makeSensitiveBuildVariables(AbstractBuild build, Set<String> sensitiveVariables) {
+        SensitiveVariablesAction action = build.getAction(SensitiveVariablesAction.class);
+        if (action != null) {
+            sensitiveVariables.addAll(action.variables);
+        }
+    }
+
+    /**
+     * Keeps the names, never the values, of the variables that hold a whole
+     * config content.
+     */
+    private static class SensitiveVariablesAction extends InvisibleAction {
+        private final Set<String> variables;
+
+        SensitiveVariablesAction(Set<String> variables) {
+            this.variables = new CopyOnWriteArraySet<>(variables);
+        }
+    }
+
+    /**
+     * Removes all temporary files at the end of the build.
+     */
+    private static class TempFilesDisposer extends Disposer {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> tempFiles;
+
+        TempFilesDisposer(List<String> tempFiles) {
+            this.tempFiles = tempFiles;
+        }
+
+        @Override
+        public void tearDown(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+            ConfigFileProvisioner.cleanup(build, workspace, tempFiles);
+        }
+    }
+
+    @Symbol("extConfigFileProvider")
+    @Extension
+    public static class DescriptorImpl extends BuildWrapperDescriptor {
+
+        @Override
+        public boolean isApplicable(AbstractProject<?, ?> item) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Messages.ExtConfigFileBuildWrapper_displayName();
+        }
+
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.configfiles.buildwrapper.ManagedFile;
+import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
+import org.jenkinsci.plugins.workflow.steps.BodyInvoker;
+import org.jenkinsci.plugins.workflow.steps.EnvironmentExpander;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import com.github.nfalco79.jenkins.plugins.configfiles.util.BuildSecrets;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.console.ConsoleLogFilter;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+/**
+ * Pipeline step that provides config files to its body.
+ * <p>
+ * Differently from the {@link ExtConfigFileBuildWrapper} credentials are
+ * resolved, files are rendered and written on the node by a dedicated
+ * bounded pool, so a slow credentials store never holds the pipeline
+ * threads. The body starts when all files are written and the provisioning
+ * is cancelled if the build is aborted meanwhile.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public class ExtConfigFileStep extends Step {
+
+    private static final Logger LOGGER = Logger.getLogger(ExtConfigFileStep.class.getName());
+
+    private final List<ManagedFile> managedFiles;
+
+    @DataBoundConstructor
+    public ExtConfigFileStep(List<ManagedFile> managedFiles) {
+        this.managedFiles = managedFiles == null ? Collections.emptyList() : managedFiles;
+    }
+
+    public List<ManagedFile> getManagedFiles() {
+        return managedFiles;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(context, managedFiles);
+    }
+
+    private static class Execution extends StepExecution {
+        private static final long serialVersionUID = 1L;
+
+        private final List<ManagedFile> managedFiles;
+        private transient volatile Future<?> task;
+        private transient volatile boolean stopped;
+        private volatile boolean provisioned;
+
+        Execution(StepContext context, List<ManagedFile> managedFiles) {
+            super(context);
+            this.managedFiles = new ArrayList<>(managedFiles);
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            StepContext context = getContext();
+            Run<?, ?> build = context.get(Run.class);
+            FilePath workspace = context.get(FilePath.class);
+            TaskListener listener = context.get(TaskListener.class);
+            EnvVars env = context.get(EnvVars.class);
+
+            try {
+                task = DescriptorImpl.POOL.submit(() -> provision(context, build, workspace, listener, env));
+            } catch (RejectedExecutionException e) {
+                throw new AbortException("Too many config files provisioning are pending, retry later");
+            }
+            return false;
+        }
+
+        private void provision(StepContext context, Run<?, ?> build, FilePath workspace, TaskListener listener, EnvVars env) {
+            List<String> tempFiles = new ArrayList<>();
+            try {
+                ConfigFileProvisioner provisioner = new ConfigFileProvisioner(managedFiles);
+                Map<String, String> variable2File = provisioner.provision(build, workspace, listener, env, tempFiles);
+                provisioned = true;
+                ExpanderImpl expander = new ExpanderImpl(variable2File, provisioner.getSensitiveVariables());
+                context.newBodyInvoker() //
+                        .withContext(EnvironmentExpander.merge(context.get(EnvironmentExpander.class), expander)) //
+                        .withContext(BodyInvoker.mergeConsoleLogFilters(context.get(ConsoleLogFilter.class), BuildSecrets.newLogFilter())) //
+                        .withCallback(new Cleanup(tempFiles)) //
+                        .start();
+            } catch (Throwable t) { // NOSONAR
+                try {
+                    ConfigFileProvisioner.cleanup(build, workspace, tempFiles);
+                } catch (IOException | InterruptedException e) {
+                    LOGGER.log(Level.FINE, "Failed to remove temporary files", e);
+                }
+                if (!stopped) {
+                    // when stopped the step has already failed with the stop cause
+                    context.onFailure(t);
+                }
+            }
+        }
+
+        @Override
+        public void stop(@NonNull Throwable cause) throws Exception {
+            stopped = true;
+            Future<?> provisioning = task;
+            if (provisioning != null) {
+                provisioning.cancel(true);
+            }
+            super.stop(cause);
+        }
+
+        @Override
+        public void onResume() {
+            if (!provisioned) {
+                // the provisioning task does not survive a restart
+                getContext().onFailure(new AbortException("Config files provisioning was interrupted by a restart"));
+            }
+        }
+    }
+
+    /**
+     * Exposes the provisioned files to the body, variables that hold a whole
+     * config content are declared sensitive.
+     */
+    private static class ExpanderImpl extends EnvironmentExpander {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, String> overrides;
+        private final Set<String> sensitiveVariables;
+
+        ExpanderImpl(Map<String, String> overrides, Set<String> sensitiveVariables) {
+            this.overrides = new HashMap<>(overrides);
+            this.sensitiveVariables = new HashSet<>(sensitiveVariables);
+        }
+
+        @Override
+        public void expand(@NonNull EnvVars env) throws IOException, InterruptedException {
+            env.overrideAll(overrides);
+        }
+
+        @NonNull
+        @Override
+        public Set<String> getSensitiveVariables() {
+            return Collections.unmodifiableSet(sensitiveVariables);
+        }
+    }
+
+    /**
+     * Removes all temporary files when the body ends.
+     */
+    private static class Cleanup extends BodyExecutionCallback.TailCall {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> tempFiles;
+
+        Cleanup(List<String> tempFiles) {
+            this.tempFiles = tempFiles;
+        }
+
+        @Override
+        protected void finished(StepContext context) throws Exception {
+            Run<?, ?> build = context.get(Run.class);
+            FilePath workspace = context.get(FilePath.class);
+            if (build != null && workspace != null) {
+                ConfigFileProvisioner.cleanup(build, workspace, tempFiles);
+            }
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        private static final ExecutorService POOL = createPool();
+
+        private static ExecutorService createPool() {
+            int size = SystemProperties.getInteger(ExtConfigFileStep.class.getName() + ".poolSize", 10);
+            int queueSize = SystemProperties.getInteger(ExtConfigFileStep.class.getName() + ".queueSize", 100);
+            // when the queue is full the step fails instead of piling up builds
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), //
+                    new NamingThreadFactory(new DaemonThreadFactory(), ExtConfigFileStep.class.getSimpleName()), //
+                    new ThreadPoolExecutor.AbortPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "extConfigFiles";
+        }
+
+        @Override
+        public boolean takesImplicitBlockArgument() {
+            return true;
+        }
+
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return Messages.ExtConfigFileStep_displayName();
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(Run.class, FilePath.class, TaskListener.class, EnvVars.class);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.io.IOException;
+
+import org.jenkinsci.lib.configprovider.model.Config;
+
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsResolver;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+/**
+ * Providers of the config files managed by this plugin.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public interface ExtConfigProvider {
+
+    /**
+     * Renders the content of the given config file.
+     * <p>
+     * Same as {@code supplyContent} but credentials are resolved through the
+     * given resolver, so that many config files can share the same lookups.
+     * Variables in the content and in the entry URLs are expanded with the
+     * given environment when the config expands variables.
+     *
+     * @param configFile the config file to render
+     * @param build a build being run
+     * @param listener the build listener
+     * @param resolver the strategy to lookup credentials
+     * @param env the build environment
+     * @return the rendered content
+     * @throws IOException in case the config file is not valid
+     */
+    String render(@NonNull Config configFile, @NonNull Run<?, ?> build, @NonNull TaskListener listener, @NonNull CredentialsResolver resolver, @NonNull EnvVars env) throws IOException;
+
+}
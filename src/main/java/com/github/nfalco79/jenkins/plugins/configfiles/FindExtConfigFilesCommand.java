@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.util.TreeSet;
+
+import org.kohsuke.args4j.Option;
+
+import com.github.nfalco79.jenkins.plugins.configfiles.ConfigFilesIndex.Ref;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import jenkins.model.Jenkins;
+
+/**
+ * Lists the config files that refer a registry host or a credentials.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+@Extension
+public class FindExtConfigFilesCommand extends CLICommand {
+
+    @Option(name = "--host", usage = "Registry host name")
+    public String host;
+
+    @Option(name = "--credentials", usage = "Credentials identifier")
+    public String credentialsId;
+
+    @Override
+    public String getShortDescription() {
+        return Messages.FindExtConfigFilesCommand_shortDescription();
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        if (host == null && credentialsId == null) {
+            throw new IllegalArgumentException("Specify --host or --credentials");
+        }
+        for (Ref ref : new TreeSet<>(ConfigFilesIndex.get().find(host, credentialsId))) {
+            stdout.println(ref);
+        }
+        return 0;
+    }
+
+}
@@ -19,7 +19,7 @@ package com.github.nfalco79.jenkins.plugins.configfiles;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -35,11 +35,19 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.verb.POST;
 
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.github.nfalco79.jenkins.plugins.configfiles.ConfigLayers.Layer;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.BuildSecrets;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsLookup;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsResolver;
 import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsUtil;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.VariableTemplate;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.VariableTemplate.Format;
+import com.google.common.collect.ImmutableList;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.AbortException;
+import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Util;
@@ -56,16 +64,20 @@ import hudson.util.ListBoxModel;
  * @author Nikolas Falco
  * @since 1.0
  */
-public class GemConfig extends Config {
+public class GemConfig extends Config implements ExtConfig {
     private static final long serialVersionUID = 1L;
 
     private String apiKey;
-    private final List<GemSource> sources;
+    // immutable, getSources() hands it out as is
+    private volatile List<GemSource> sources;
+    private boolean inMemory;
+    private boolean expandVariables;
+    private String parentId;
 
     @DataBoundConstructor
     public GemConfig(@NonNull String id, String name, String comment, String content, List<GemSource> sources) {
         super(id, Util.fixEmptyAndTrim(name), Util.fixEmptyAndTrim(comment), Util.fixEmptyAndTrim(content));
-        this.sources = sources == null ? new ArrayList<>(3) : sources;
+        this.sources = sources == null ? ImmutableList.of() : ImmutableList.copyOf(sources);
     }
 
 
@@ -73,6 +85,45 @@ public class GemConfig extends Config {
         return sources;
     }
 
+    /**
+     * Returns the sources in text form, one per line.
+     *
+     * @return the text form of sources
+     */
+    public String getBulkSources() {
+        return BulkEntries.format(sources, s -> new String[] { s.getUrl(), s.getCredentialsId() });
+    }
+
+    /**
+     * Adds the given sources in text form, replacing those with the same key.
+     *
+     * @param bulkSources the sources in text form, one per line
+     * @throws IllegalArgumentException if a line has not enough fields
+     */
+    @DataBoundSetter
+    public void setBulkSources(String bulkSources) {
+        sources = ImmutableList.copyOf(BulkEntries.merge(sources, bulkSources, 1, fields -> new GemSource(fields[0], BulkEntries.field(fields, 1)), GemSource::getUrl));
+    }
+
+    /**
+     * Returns if this config has too many sources to edit them one by one.
+     *
+     * @return {@code true} if sources are edited only in text form
+     */
+    public boolean isBulkEdit() {
+        return BulkEntries.isBulk(sources);
+    }
+
+    /**
+     * Replaces the sources loaded from disk with an immutable copy.
+     *
+     * @return this instance
+     */
+    protected Object readResolve() {
+        sources = sources == null ? ImmutableList.of() : ImmutableList.copyOf(sources);
+        return this;
+    }
+
     public String getApiKey() {
         return apiKey;
     }
@@ -82,6 +133,36 @@ public class GemConfig extends Config {
         this.apiKey = Util.fixEmptyAndTrim(apiKey);
     }
 
+    @Override
+    public boolean isInMemory() {
+        return inMemory;
+    }
+
+    @DataBoundSetter
+    public void setInMemory(boolean inMemory) {
+        this.inMemory = inMemory;
+    }
+
+    @Override
+    public boolean isExpandVariables() {
+        return expandVariables;
+    }
+
+    @DataBoundSetter
+    public void setExpandVariables(boolean expandVariables) {
+        this.expandVariables = expandVariables;
+    }
+
+    @Override
+    public String getParentId() {
+        return parentId;
+    }
+
+    @DataBoundSetter
+    public void setParentId(String parentId) {
+        this.parentId = Util.fixEmptyAndTrim(parentId);
+    }
+
     /**
      * Perform a validation of the configuration.
      * <p>
@@ -98,9 +179,13 @@ public class GemConfig extends Config {
     }
 
     @Extension
-    public static class GemConfigProvider extends AbstractConfigProviderImpl {
+    public static class GemConfigProvider extends AbstractConfigProviderImpl implements ExtConfigProvider {
+
+        private transient volatile String template;
 
         public GemConfigProvider() {
+            // reads only the legacy provider file of old installations, configs
+            // are stored by GlobalConfigFiles and by folder properties
             load();
         }
 
@@ -119,6 +204,11 @@ public class GemConfig extends Config {
             return new GemConfig(configId, "MyGemConfig", "user config", loadTemplateContent(), null);
         }
 
+        @POST
+        public FormValidation doCheckBulkSources(@QueryParameter String bulkSources) {
+            return BulkEntries.validate(bulkSources, 1);
+        }
+
         @POST
         public FormValidation doCheckApiKey(@CheckForNull @AncestorInPath Item projectOrFolder, //
                                             @QueryParameter String apiKey) {
@@ -133,33 +223,61 @@ public class GemConfig extends Config {
         }
 
         protected String loadTemplateContent() {
-            try (InputStream is = this.getClass().getResourceAsStream("template.gemrc")) {
-                return IOUtils.toString(is, StandardCharsets.UTF_8);
-            } catch (IOException e) { // NOSONAR
-                return null;
+            // the template never changes, read it once
+            String content = template;
+            if (content == null) {
+                try (InputStream is = this.getClass().getResourceAsStream("template.gemrc")) {
+                    content = IOUtils.toString(is, StandardCharsets.UTF_8);
+                    template = content;
+                } catch (IOException e) { // NOSONAR
+                    return null;
+                }
             }
+            return content;
         }
 
         @Override
         public String supplyContent(Config configFile, Run<?, ?> build, FilePath workDir, TaskListener listener, List<String> tempFiles) throws IOException {
+            // the build environment is computed only when it is used
+            EnvVars env = new EnvVars();
+            if (configFile instanceof ExtConfig && ((ExtConfig) configFile).isExpandVariables()) {
+                try {
+                    env = build.getEnvironment(listener);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            return render(configFile, build, listener, CredentialsLookup.get(), env);
+        }
+
+        @Override
+        public String render(Config configFile, Run<?, ?> build, TaskListener listener, CredentialsResolver resolver, EnvVars env) throws IOException {
             String fileContent = configFile.content;
             if (configFile instanceof GemConfig) {
                 GemConfig config = (GemConfig) configFile;
 
-                GemConfigHelper helper = new GemConfigHelper(config.getSources());
+                Layer<GemSource> layer = ConfigLayers.resolve(build, config, GemConfig.class, loadTemplateContent(), GemConfig::getSources, GemSource::getUrl);
+                // variables are expanded only in configs that opt in, a literal ${...} is kept otherwise
+                Map<String, String> values = config.isExpandVariables() ? env : Collections.<String, String> emptyMap();
+                // templates are compiled once per config version
+                fileContent = VariableTemplate.expand(layer.getContent(), values, Format.YAML);
+                List<GemSource> sources = VariableTemplate.expand(layer.getEntries(), GemSource::getUrl, (source, url) -> new GemSource(url, VariableTemplate.hasFixedHost(source.getUrl()) ? source.getCredentialsId() : null), values);
+                GemConfigHelper helper = new GemConfigHelper(sources);
 
-                List<GemSource> sources = config.getSources();
+                Map<String, StandardUsernamePasswordCredentials> source2Credentials = Collections.emptyMap();
                 if (!sources.isEmpty()) {
                     listener.getLogger().println("Adding all server entries");
-                    Map<String, StandardUsernamePasswordCredentials> source2Credentials = helper.resolveCredentials(build);
-                    fileContent = helper.fillSources(fileContent, source2Credentials);
+                    source2Credentials = helper.resolveCredentials(build, resolver);
                 }
 
-                String apiKey = config.getApiKey();
+                String apiKey = layer.inherit(config, GemConfig::getApiKey);
                 if (apiKey != null) {
                     listener.getLogger().println("Adding API Key entry");
-                    fileContent = helper.fillApiKey(fileContent, apiKey, build);
                 }
+                // sources and API Key are merged in one pass
+                fileContent = helper.fill(fileContent, source2Credentials, apiKey, build, resolver);
+                BuildSecrets.of(build).addAll(helper.getSecrets());
 
                 try {
                     if (StringUtils.isNotBlank(fileContent)) { // NOSONAR
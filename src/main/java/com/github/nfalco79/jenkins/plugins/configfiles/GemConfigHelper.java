@@ -21,23 +21,22 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
-import com.cloudbees.plugins.credentials.domains.HostnameRequirement;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsLookup;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsResolver;
 
-import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
-import hudson.Util;
 import hudson.model.Run;
 import hudson.util.Secret;
 
@@ -50,9 +49,11 @@ import hudson.util.Secret;
 public final class GemConfigHelper {
 
     private final Collection<GemSource> sources;
+    private final Set<String> secrets = new LinkedHashSet<>();
 
     public GemConfigHelper(List<GemSource> sources) {
-        this.sources = new ArrayList<>(sources);
+        // configs expose read only entries, no need of a copy
+        this.sources = sources;
     }
 
     /**
@@ -63,20 +64,28 @@ public final class GemConfigHelper {
      * @return map of registry URL - credential
      */
     public Map<String, StandardUsernamePasswordCredentials> resolveCredentials(Run<?, ?> build) {
+        return resolveCredentials(build, CredentialsLookup.get());
+    }
+
+    /**
+     * Resolves all source credentials through the given resolver and returns a
+     * map paring registry URL to credential.
+     *
+     * @param build a build being run
+     * @param resolver the strategy to lookup credentials
+     * @return map of registry URL - credential
+     */
+    public Map<String, StandardUsernamePasswordCredentials> resolveCredentials(Run<?, ?> build, CredentialsResolver resolver) {
         Map<String, StandardUsernamePasswordCredentials> source2credential = new HashMap<>();
 
         for (GemSource server : sources) {
             String credentialsId = server.getCredentialsId();
             if (credentialsId != null) {
 
-                // create a domain filter based on registry URL
-                final URL serverURL = toURL(server.getUrl());
-                List<DomainRequirement> domainRequirements = Collections.emptyList();
-                if (serverURL != null) {
-                    domainRequirements = Collections.<DomainRequirement> singletonList(new HostnameRequirement(serverURL.getHost()));
-                }
+                // domain filter based on registry URL is computed once per registry
+                List<DomainRequirement> domainRequirements = server.getEndpoint().getDomainRequirements();
 
-                StandardUsernamePasswordCredentials c = CredentialsProvider.findCredentialById(credentialsId, StandardUsernamePasswordCredentials.class, build, domainRequirements);
+                StandardUsernamePasswordCredentials c = resolver.findCredentialById(credentialsId, StandardUsernamePasswordCredentials.class, build, domainRequirements);
                 if (c != null) {
                     source2credential.put(server.getUrl(), c);
                 }
@@ -92,20 +101,18 @@ public final class GemConfigHelper {
      * @return map of registry URL - credential
      */
     public String fillApiKey(String gemrcContent, String apiKey, Run<?, ?> build) {
-        if (apiKey == null) {
-            return gemrcContent;
-        }
-
-        Gemrc gemrc = new Gemrc();
-        gemrc.from(gemrcContent);
-
-        StandardUsernamePasswordCredentials c = CredentialsProvider.findCredentialById(apiKey, StandardUsernamePasswordCredentials.class, build, Collections.emptyList());
-        if (c != null) {
-            String usernameColumnPassword = c.getUsername() + ':' + c.getPassword().getPlainText();
-            gemrc.set(":rubygems_api_key", "Basic " + Base64.getEncoder().encodeToString(usernameColumnPassword.getBytes(StandardCharsets.UTF_8)));
-        }
+        return fillApiKey(gemrcContent, apiKey, build, CredentialsLookup.get());
+    }
 
-        return gemrc.toString();
+    /**
+     * Resolves the given API Key credential through the given resolver.
+     *
+     * @param build a build being run
+     * @param resolver the strategy to lookup credentials
+     * @return map of registry URL - credential
+     */
+    public String fillApiKey(String gemrcContent, String apiKey, Run<?, ?> build, CredentialsResolver resolver) {
+        return fill(gemrcContent, Collections.emptyMap(), apiKey, build, resolver);
     }
 
     /**
@@ -118,12 +125,42 @@ public final class GemConfigHelper {
      *         credentials added
      */
     public String fillSources(String gemrcContent, Map<String, StandardUsernamePasswordCredentials> source2Credentials) {
-        if (source2Credentials.isEmpty()) {
-            return gemrcContent;
+        GemrcMerger merger = new GemrcMerger();
+        addSources(merger, source2Credentials);
+        return merger.isEmpty() ? gemrcContent : merger.merge(gemrcContent);
+    }
+
+    /**
+     * Fill the gemrc user config with the given sources and API Key in a
+     * single pass over the content.
+     *
+     * @param gemrcContent .gemrc user config
+     * @param source2Credentials the credentials to be inserted into the user
+     *        config (key: registry URL, value: Jenkins credentials)
+     * @param apiKey the API Key credentials identifier, could be {@code null}
+     * @param build a build being run
+     * @param resolver the strategy to lookup credentials
+     * @return the updated content of the {@code gemContent}
+     */
+    public String fill(String gemrcContent, Map<String, StandardUsernamePasswordCredentials> source2Credentials, @Nullable String apiKey, Run<?, ?> build, CredentialsResolver resolver) {
+        GemrcMerger merger = new GemrcMerger();
+        addSources(merger, source2Credentials);
+        if (apiKey != null) {
+            StandardUsernamePasswordCredentials c = resolver.findCredentialById(apiKey, StandardUsernamePasswordCredentials.class, build, Collections.emptyList());
+            if (c != null) {
+                String usernameColumnPassword = c.getUsername() + ':' + c.getPassword().getPlainText();
+                secrets.add(c.getPassword().getPlainText());
+                secrets.add(usernameColumnPassword);
+                merger.set(":rubygems_api_key", "Basic " + Base64.getEncoder().encodeToString(usernameColumnPassword.getBytes(StandardCharsets.UTF_8)));
+            }
         }
+        return merger.isEmpty() ? gemrcContent : merger.merge(gemrcContent);
+    }
 
-        Gemrc gemrc = new Gemrc();
-        gemrc.from(gemrcContent);
+    private void addSources(GemrcMerger merger, Map<String, StandardUsernamePasswordCredentials> source2Credentials) {
+        if (source2Credentials.isEmpty()) {
+            return;
+        }
 
         for (GemSource source : sources) {
             String url = source.getUrl();
@@ -133,11 +170,20 @@ public final class GemConfigHelper {
 
             StandardUsernamePasswordCredentials credentials = source2Credentials.get(url);
             if (credentials != null) {
-                String authority = credentials.getUsername() + ":" + Secret.toString(credentials.getPassword());
+                String password = Secret.toString(credentials.getPassword());
+                String authority = credentials.getUsername() + ":" + password;
+                secrets.add(password);
+                secrets.add(authority);
 
                 try {
-                    URL baseURL = new URL(url);
-                    gemrc.addSource(new URI(baseURL.getProtocol(), authority, baseURL.getHost(), baseURL.getPort(), baseURL.getPath(), baseURL.getQuery(), null).toURL());
+                    URL baseURL = source.getEndpoint().toURL();
+                    if (baseURL == null) {
+                        throw new MalformedURLException("Invalid url " + url);
+                    }
+                    URI sourceURI = new URI(baseURL.getProtocol(), authority, baseURL.getHost(), baseURL.getPort(), baseURL.getPath(), baseURL.getQuery(), null);
+                    // the authority as escaped in the URL
+                    secrets.add(sourceURI.getRawUserInfo());
+                    merger.addSource(sourceURI.toURL());
                 } catch (MalformedURLException e) {
                     // should never happens since the values was already checked
                     throw new IllegalArgumentException(e);
@@ -147,8 +193,15 @@ public final class GemConfigHelper {
             }
 
         }
+    }
 
-        return gemrc.toString();
+    /**
+     * Returns the secrets written in the user config by this helper.
+     *
+     * @return the injected passwords and tokens
+     */
+    public Set<String> getSecrets() {
+        return secrets;
     }
 
     @NonNull
@@ -161,12 +214,13 @@ public final class GemConfigHelper {
     }
 
     @NonNull
-    public String calculatePrefix(@NonNull final String registryURL) {
-        String trimmedURL = trimSlash(registryURL);
+    public String calculatePrefix(@NonNull final GemSource source) {
+        String trimmedURL = trimSlash(source.getUrl());
 
-        URL url = toURL(trimmedURL);
-        if (url == null) {
-            throw new IllegalArgumentException("Invalid url " + registryURL);
+        // the entry endpoint is parsed once when the entry is created or loaded
+        URL url = source.getEndpoint().toURL();
+        if (url == null || trimmedURL == null) {
+            throw new IllegalArgumentException("Invalid url " + source.getUrl());
         }
 
         return "//" + trimmedURL.substring((url.getProtocol() + "://").length()) + '/';
@@ -185,20 +239,4 @@ public final class GemConfigHelper {
         return url;
     }
 
-    @CheckForNull
-    private static URL toURL(@Nullable final String url) {
-        URL result = null;
-
-        String fixedURL = Util.fixEmptyAndTrim(url);
-        if (fixedURL != null) {
-            try {
-                return new URL(fixedURL);
-            } catch (MalformedURLException e) {
-                // no filter based on hostname
-            }
-        }
-
-        return result;
-    }
-
 }
@@ -17,8 +17,7 @@
 package com.github.nfalco79.jenkins.plugins.configfiles;
 
 import java.io.Serializable;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
@@ -27,6 +26,7 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 
 import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsUtil;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.RegistryEndpoint;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -59,6 +59,7 @@ public class GemSource extends AbstractDescribableImpl<GemSource> implements Ser
 
     private final String url;
     private final String credentialsId;
+    private transient RegistryEndpoint endpoint;
 
     /**
      * Default constructor.
@@ -70,6 +71,7 @@ public class GemSource extends AbstractDescribableImpl<GemSource> implements Ser
     public GemSource(@NonNull String url, String credentialsId) {
         this.url = Util.fixEmpty(url);
         this.credentialsId = Util.fixEmpty(credentialsId);
+        this.endpoint = RegistryEndpoint.of(this.url);
     }
 
     /**
@@ -92,6 +94,26 @@ public class GemSource extends AbstractDescribableImpl<GemSource> implements Ser
         return credentialsId;
     }
 
+    /**
+     * Get the parsed server URL.
+     *
+     * @return the endpoint of this server
+     */
+    @NonNull
+    public RegistryEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Parses again the URL after deserialization.
+     *
+     * @return this instance
+     */
+    protected Object readResolve() {
+        endpoint = RegistryEndpoint.of(url);
+        return this;
+    }
+
     /**
      * Perform the validation of current registry.
      * <p>
@@ -119,6 +141,26 @@ public class GemSource extends AbstractDescribableImpl<GemSource> implements Ser
         return "url: " + url + (credentialsId != null ? " credentialId: " + credentialsId : "");
     }
 
+    /**
+     * Stores this entry in a compact form, reads also the legacy layout.
+     */
+    public static final class ConverterImpl extends CompactEntryConverter<GemSource> {
+
+        public ConverterImpl() {
+            super(GemSource.class, "url", "credentialsId");
+        }
+
+        @Override
+        protected String[] values(GemSource entry) {
+            return new String[] { entry.url, entry.credentialsId };
+        }
+
+        @Override
+        protected GemSource create(Map<String, String> values) {
+            return new GemSource(values.get("url"), values.get("credentialsId"));
+        }
+    }
+
     @Extension
     public static class DescriptorImpl extends Descriptor<GemSource> {
 
@@ -140,7 +182,7 @@ public class GemSource extends AbstractDescribableImpl<GemSource> implements Ser
             }
 
             // test malformed URL
-            if (!variableRegExp.matcher(url).find() && toURL(url) == null) {
+            if (!variableRegExp.matcher(url).find() && !RegistryEndpoint.of(url).isValid()) {
                 return FormValidation.error(Messages.invalidServerURL());
             }
 
@@ -165,21 +207,6 @@ public class GemSource extends AbstractDescribableImpl<GemSource> implements Ser
             return "";
         }
 
-        private static URL toURL(final String url) {
-            URL result = null;
-
-            String fixedURL = Util.fixEmptyAndTrim(url);
-            if (fixedURL != null) {
-                try {
-                    return new URL(fixedURL);
-                } catch (MalformedURLException e) {
-                    // no filter based on hostname
-                }
-            }
-
-            return result;
-        }
-
     }
 
 }
\ No newline at end of file
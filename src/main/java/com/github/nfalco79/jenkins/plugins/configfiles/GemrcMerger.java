@@ -0,0 +1,322 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.DumperOptions.FlowStyle;
+import org.yaml.snakeyaml.DumperOptions.ScalarStyle;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.emitter.Emitter;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.CollectionEndEvent;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.CommentEvent;
+import org.yaml.snakeyaml.events.DocumentEndEvent;
+import org.yaml.snakeyaml.events.DocumentStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.ImplicitTuple;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.SequenceEndEvent;
+import org.yaml.snakeyaml.events.SequenceStartEvent;
+import org.yaml.snakeyaml.events.StreamEndEvent;
+import org.yaml.snakeyaml.events.StreamStartEvent;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Merges sources and options into a gemrc user config.
+ * <p>
+ * Differently from {@link Gemrc} the content is never loaded as a whole, the
+ * YAML events are streamed from the parser to the emitter as they are, only
+ * the value of the given options is replaced and the new sources are
+ * appended to the {@code :sources} list. Comments and styles of the
+ * untouched entries are preserved.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public class GemrcMerger {
+    private static final String SOURCES = ":sources";
+    private static final Resolver RESOLVER = new Resolver();
+
+    private final List<String> sources = new ArrayList<>();
+    private final Map<String, String> options = new LinkedHashMap<>();
+
+    /**
+     * Appends a source to the {@code :sources} list.
+     *
+     * @param source url
+     * @return this merger
+     */
+    public GemrcMerger addSource(@NonNull URL source) {
+        sources.add(source.toString());
+        return this;
+    }
+
+    /**
+     * Sets the value for the specified option, replacing any existing value.
+     *
+     * @param option name
+     * @param value to set
+     * @return this merger
+     */
+    public GemrcMerger set(@NonNull String option, @NonNull String value) {
+        options.put(option, value);
+        return this;
+    }
+
+    /**
+     * Returns {@code true} if there is nothing to merge.
+     *
+     * @return {@code true} if no source or option was added
+     */
+    public boolean isEmpty() {
+        return sources.isEmpty() && options.isEmpty();
+    }
+
+    /**
+     * Merges sources and options into the given content.
+     *
+     * @param content gemrc user config
+     * @return the merged content
+     * @throws IllegalArgumentException if the content is not a YAML map
+     */
+    public String merge(@CheckForNull String content) {
+        StringWriter writer = new StringWriter();
+
+        DumperOptions dumperOptions = new DumperOptions();
+        dumperOptions.setDefaultFlowStyle(FlowStyle.BLOCK);
+        dumperOptions.setProcessComments(true);
+        Emitter emitter = new Emitter(writer, dumperOptions);
+        try {
+            if (StringUtils.isBlank(content)) {
+                emitter.emit(new StreamStartEvent(null, null));
+                emitter.emit(new DocumentStartEvent(null, null, true, null, null));
+                new Merge(emitter).emitMapping();
+                emitter.emit(new DocumentEndEvent(null, null, false));
+                emitter.emit(new StreamEndEvent(null, null));
+            } else {
+                LoaderOptions loaderOptions = new LoaderOptions();
+                loaderOptions.setProcessComments(true);
+                Merge merge = new Merge(emitter);
+                for (Event event : new Yaml(loaderOptions).parse(new StringReader(content))) {
+                    merge.accept(event);
+                }
+            }
+        } catch (IOException e) {
+            // never happens writing on a string
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * State of a single merge, root mapping entries are intercepted, all
+     * other events are emitted as they are.
+     */
+    private class Merge {
+        private final Emitter emitter;
+        private final Set<String> replaced = new HashSet<>();
+        private boolean sourcesMerged;
+        private boolean merged;
+
+        private int depth;
+        private boolean inRoot;
+        private boolean expectKey;
+        private boolean keyIsCollection;
+        private String pendingKey;
+        private int skipDepth;
+        private int sourcesDepth = -1;
+
+        Merge(Emitter emitter) {
+            this.emitter = emitter;
+        }
+
+        void accept(Event event) throws IOException {
+            if (skipDepth > 0) {
+                // the value being replaced
+                if (event instanceof CollectionStartEvent) {
+                    skipDepth++;
+                } else if (event instanceof CollectionEndEvent) {
+                    skipDepth--;
+                }
+                return;
+            }
+
+            if (pendingKey != null) {
+                if (event instanceof CommentEvent) {
+                    // comments of the replaced value
+                    return;
+                }
+                acceptValue(event);
+                return;
+            }
+
+            if (event instanceof DocumentStartEvent) {
+                DocumentStartEvent start = (DocumentStartEvent) event;
+                emitter.emit(new DocumentStartEvent(start.getStartMark(), start.getEndMark(), true, start.getVersion(), start.getTags()));
+            } else if (event instanceof StreamEndEvent && !merged) {
+                // content has only comments
+                emitter.emit(new DocumentStartEvent(null, null, true, null, null));
+                emitMapping();
+                emitter.emit(new DocumentEndEvent(null, null, false));
+                emitter.emit(event);
+            } else if (event instanceof CollectionStartEvent) {
+                if (depth == 0 && !merged) {
+                    if (!(event instanceof MappingStartEvent)) {
+                        throw new IllegalArgumentException("gemrc content is not a map");
+                    }
+                    inRoot = true;
+                    expectKey = true;
+                } else if (inRoot && depth == 1) {
+                    keyIsCollection = expectKey;
+                }
+                depth++;
+                emitter.emit(event);
+            } else if (event instanceof CollectionEndEvent) {
+                if (depth == sourcesDepth) {
+                    emitSources();
+                    sourcesDepth = -1;
+                }
+                if (inRoot && depth == 1) {
+                    emitMissing();
+                    inRoot = false;
+                    merged = true;
+                }
+                depth--;
+                emitter.emit(event);
+                if (inRoot && depth == 1) {
+                    expectKey = !keyIsCollection;
+                    keyIsCollection = false;
+                }
+            } else if (event instanceof ScalarEvent || event instanceof AliasEvent) {
+                if (depth == 0 && !merged) {
+                    if (event instanceof ScalarEvent && isNull((ScalarEvent) event)) {
+                        // empty document
+                        emitMapping();
+                        return;
+                    }
+                    throw new IllegalArgumentException("gemrc content is not a map");
+                }
+                emitter.emit(event);
+                if (inRoot && depth == 1) {
+                    if (expectKey && event instanceof ScalarEvent) {
+                        intercept(((ScalarEvent) event).getValue());
+                    }
+                    expectKey = !expectKey;
+                }
+            } else {
+                emitter.emit(event);
+            }
+        }
+
+        private void intercept(String key) {
+            if (SOURCES.equals(key) && !sources.isEmpty() && !sourcesMerged) {
+                sourcesMerged = true;
+                pendingKey = key;
+            } else if (options.containsKey(key) && replaced.add(key)) {
+                pendingKey = key;
+            }
+        }
+
+        private void acceptValue(Event event) throws IOException {
+            String key = pendingKey;
+            pendingKey = null;
+
+            if (SOURCES.equals(key) && event instanceof SequenceStartEvent) {
+                // keep existing sources, new ones are appended at the end
+                depth++;
+                sourcesDepth = depth;
+                emitter.emit(event);
+                expectKey = false;
+                keyIsCollection = false;
+                return;
+            }
+
+            if (event instanceof CollectionStartEvent) {
+                skipDepth = 1;
+            }
+            if (SOURCES.equals(key)) {
+                emitter.emit(new SequenceStartEvent(null, null, true, null, null, FlowStyle.BLOCK));
+                emitSources();
+                emitter.emit(new SequenceEndEvent(null, null));
+            } else {
+                emitScalar(options.get(key));
+            }
+            expectKey = true;
+        }
+
+        void emitMapping() throws IOException {
+            emitter.emit(new MappingStartEvent(null, null, true, null, null, FlowStyle.BLOCK));
+            emitMissing();
+            emitter.emit(new MappingEndEvent(null, null));
+            merged = true;
+        }
+
+        private void emitMissing() throws IOException {
+            for (Map.Entry<String, String> option : options.entrySet()) {
+                if (replaced.add(option.getKey())) {
+                    emitScalar(option.getKey());
+                    emitScalar(option.getValue());
+                }
+            }
+            if (!sources.isEmpty() && !sourcesMerged) {
+                sourcesMerged = true;
+                emitScalar(SOURCES);
+                emitter.emit(new SequenceStartEvent(null, null, true, null, null, FlowStyle.BLOCK));
+                emitSources();
+                emitter.emit(new SequenceEndEvent(null, null));
+            }
+        }
+
+        private void emitSources() throws IOException {
+            for (String source : sources) {
+                emitScalar(source);
+            }
+        }
+
+        private void emitScalar(String value) throws IOException {
+            // plain style only when the value would be read back as string
+            boolean plain = Tag.STR.equals(RESOLVER.resolve(NodeId.scalar, value, true));
+            emitter.emit(new ScalarEvent(null, null, new ImplicitTuple(plain, true), value, null, null, ScalarStyle.PLAIN));
+        }
+
+        private boolean isNull(ScalarEvent event) {
+            return event.getImplicit().canOmitTagInPlainScalar() && Tag.NULL.equals(RESOLVER.resolve(NodeId.scalar, event.getValue(), true));
+        }
+    }
+
+}
@@ -18,7 +18,8 @@ package com.github.nfalco79.jenkins.plugins.configfiles;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -28,16 +29,28 @@ import org.jenkinsci.lib.configprovider.AbstractConfigProviderImpl;
 import org.jenkinsci.lib.configprovider.model.Config;
 import org.jenkinsci.lib.configprovider.model.ContentType;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
 
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import com.github.nfalco79.jenkins.plugins.configfiles.ConfigLayers.Layer;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.BuildSecrets;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsLookup;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsResolver;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.VariableTemplate;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.VariableTemplate.Format;
+import com.google.common.collect.ImmutableList;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.AbortException;
+import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Util;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.util.FormValidation;
 
 /**
  * A config/provider to handle the special case of a PyPIrc file
@@ -45,21 +58,94 @@ import hudson.model.TaskListener;
  * @author Nikolas Falco
  * @since 1.0
  */
-public class PyPIConfig extends Config {
+public class PyPIConfig extends Config implements ExtConfig {
     private static final long serialVersionUID = 1L;
 
-    private final List<PyPIServer> servers;
+    // never changed in place, a bulk edit swaps in a new immutable copy
+    private volatile List<PyPIServer> servers;
+    private boolean inMemory;
+    private boolean expandVariables;
+    private String parentId;
 
     @DataBoundConstructor
     public PyPIConfig(@NonNull String id, String name, String comment, String content, List<PyPIServer> servers) {
         super(id, Util.fixEmptyAndTrim(name), Util.fixEmptyAndTrim(comment), Util.fixEmptyAndTrim(content));
-        this.servers = servers == null ? new ArrayList<>(3) : servers;
+        this.servers = servers == null ? ImmutableList.of() : ImmutableList.copyOf(servers);
     }
 
     public List<PyPIServer> getServers() {
         return servers;
     }
 
+    /**
+     * Returns the servers in text form, one per line.
+     *
+     * @return the text form of servers
+     */
+    public String getBulkServers() {
+        return BulkEntries.format(servers, s -> new String[] { s.getName(), s.getUrl(), s.getCredentialsId() });
+    }
+
+    /**
+     * Adds the given servers in text form, replacing those with the same key.
+     *
+     * @param bulkServers the servers in text form, one per line
+     * @throws IllegalArgumentException if a line has not enough fields
+     */
+    @DataBoundSetter
+    public void setBulkServers(String bulkServers) {
+        servers = ImmutableList.copyOf(BulkEntries.merge(servers, bulkServers, 2, fields -> new PyPIServer(fields[0], fields[1], BulkEntries.field(fields, 2)), PyPIServer::getName));
+    }
+
+    /**
+     * Returns if this config has too many servers to edit them one by one.
+     *
+     * @return {@code true} if servers are edited only in text form
+     */
+    public boolean isBulkEdit() {
+        return BulkEntries.isBulk(servers);
+    }
+
+    /**
+     * Replaces the servers loaded from disk with an immutable copy.
+     *
+     * @return this instance
+     */
+    protected Object readResolve() {
+        servers = servers == null ? ImmutableList.of() : ImmutableList.copyOf(servers);
+        return this;
+    }
+
+    @Override
+    public boolean isInMemory() {
+        return inMemory;
+    }
+
+    @DataBoundSetter
+    public void setInMemory(boolean inMemory) {
+        this.inMemory = inMemory;
+    }
+
+    @Override
+    public boolean isExpandVariables() {
+        return expandVariables;
+    }
+
+    @DataBoundSetter
+    public void setExpandVariables(boolean expandVariables) {
+        this.expandVariables = expandVariables;
+    }
+
+    @Override
+    public String getParentId() {
+        return parentId;
+    }
+
+    @DataBoundSetter
+    public void setParentId(String parentId) {
+        this.parentId = Util.fixEmptyAndTrim(parentId);
+    }
+
     /**
      * Perform a validation of the configuration.
      * <p>
@@ -76,9 +162,13 @@ public class PyPIConfig extends Config {
     }
 
     @Extension
-    public static class PyPIConfigProvider extends AbstractConfigProviderImpl {
+    public static class PyPIConfigProvider extends AbstractConfigProviderImpl implements ExtConfigProvider {
+
+        private transient volatile String template;
 
         public PyPIConfigProvider() {
+            // reads only the legacy provider file of old installations, configs
+            // are stored by GlobalConfigFiles and by folder properties
             load();
         }
 
@@ -97,26 +187,58 @@ public class PyPIConfig extends Config {
             return new PyPIConfig(configId, "MyPypircConfig", "user config", loadTemplateContent(), null);
         }
 
+        @POST
+        public FormValidation doCheckBulkServers(@QueryParameter String bulkServers) {
+            return BulkEntries.validate(bulkServers, 2);
+        }
+
         protected String loadTemplateContent() {
-            try (InputStream is = this.getClass().getResourceAsStream("template.pypirc")) {
-                return IOUtils.toString(is, "UTF-8");
-            } catch (IOException e) { // NOSONAR
-                return null;
+            // the template never changes, read it once
+            String content = template;
+            if (content == null) {
+                try (InputStream is = this.getClass().getResourceAsStream("template.pypirc")) {
+                    content = IOUtils.toString(is, StandardCharsets.UTF_8);
+                    template = content;
+                } catch (IOException e) { // NOSONAR
+                    return null;
+                }
             }
+            return content;
         }
 
         @Override
         public String supplyContent(Config configFile, Run<?, ?> build, FilePath workDir, TaskListener listener, List<String> tempFiles) throws IOException {
+            // the build environment is computed only when it is used
+            EnvVars env = new EnvVars();
+            if (configFile instanceof ExtConfig && ((ExtConfig) configFile).isExpandVariables()) {
+                try {
+                    env = build.getEnvironment(listener);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            return render(configFile, build, listener, CredentialsLookup.get(), env);
+        }
+
+        @Override
+        public String render(Config configFile, Run<?, ?> build, TaskListener listener, CredentialsResolver resolver, EnvVars env) throws IOException {
             String fileContent = configFile.content;
             if (configFile instanceof PyPIConfig) {
                 PyPIConfig config = (PyPIConfig) configFile;
 
-                List<PyPIServer> servers = config.getServers();
+                Layer<PyPIServer> layer = ConfigLayers.resolve(build, config, PyPIConfig.class, loadTemplateContent(), PyPIConfig::getServers, PyPIServer::getName);
+                // variables are expanded only in configs that opt in, a literal ${...} is kept otherwise
+                Map<String, String> values = config.isExpandVariables() ? env : Collections.<String, String> emptyMap();
+                // templates are compiled once per config version
+                fileContent = VariableTemplate.expand(layer.getContent(), values, Format.INI);
+                List<PyPIServer> servers = VariableTemplate.expand(layer.getEntries(), PyPIServer::getUrl, (server, url) -> new PyPIServer(server.getName(), url, VariableTemplate.hasFixedHost(server.getUrl()) ? server.getCredentialsId() : null), values);
                 if (!servers.isEmpty()) {
                     PyPIServerHelper helper = new PyPIServerHelper(servers);
                     listener.getLogger().println("Adding all server entries");
-                    Map<String, StandardUsernameCredentials> registry2Credentials = helper.resolveCredentials(build);
+                    Map<String, StandardUsernameCredentials> registry2Credentials = helper.resolveCredentials(build, resolver);
                     fileContent = helper.fillRegistry(fileContent, registry2Credentials);
+                    BuildSecrets.of(build).addAll(helper.getSecrets());
                 }
 
                 try {
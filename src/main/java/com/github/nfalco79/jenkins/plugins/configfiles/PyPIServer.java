@@ -17,8 +17,7 @@
 package com.github.nfalco79.jenkins.plugins.configfiles;
 
 import java.io.Serializable;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
@@ -28,6 +27,7 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.verb.POST;
 
 import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsUtil;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.RegistryEndpoint;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -62,6 +62,7 @@ public class PyPIServer extends AbstractDescribableImpl<PyPIServer> implements S
     private final String name;
     private final String url;
     private final String credentialsId;
+    private transient RegistryEndpoint endpoint;
 
     /**
      * Default constructor.
@@ -74,6 +75,7 @@ public class PyPIServer extends AbstractDescribableImpl<PyPIServer> implements S
         this.name = Util.fixEmpty(name);
         this.url = Util.fixEmpty(url);
         this.credentialsId = Util.fixEmpty(credentialsId);
+        this.endpoint = RegistryEndpoint.of(this.url);
     }
 
     /**
@@ -105,6 +107,26 @@ public class PyPIServer extends AbstractDescribableImpl<PyPIServer> implements S
         return credentialsId;
     }
 
+    /**
+     * Get the parsed server URL.
+     *
+     * @return the endpoint of this server
+     */
+    @NonNull
+    public RegistryEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Parses again the URL after deserialization.
+     *
+     * @return this instance
+     */
+    protected Object readResolve() {
+        endpoint = RegistryEndpoint.of(url);
+        return this;
+    }
+
     /**
      * Perform the validation of current registry.
      * <p>
@@ -133,6 +155,26 @@ public class PyPIServer extends AbstractDescribableImpl<PyPIServer> implements S
         return "url: " + url + (credentialsId != null ? " credentialId: " + credentialsId : "");
     }
 
+    /**
+     * Stores this entry in a compact form, reads also the legacy layout.
+     */
+    public static final class ConverterImpl extends CompactEntryConverter<PyPIServer> {
+
+        public ConverterImpl() {
+            super(PyPIServer.class, "name", "url", "credentialsId");
+        }
+
+        @Override
+        protected String[] values(PyPIServer entry) {
+            return new String[] { entry.name, entry.url, entry.credentialsId };
+        }
+
+        @Override
+        protected PyPIServer create(Map<String, String> values) {
+            return new PyPIServer(values.get("name"), values.get("url"), values.get("credentialsId"));
+        }
+    }
+
     @Extension
     public static class DescriptorImpl extends Descriptor<PyPIServer> {
 
@@ -156,7 +198,7 @@ public class PyPIServer extends AbstractDescribableImpl<PyPIServer> implements S
             }
 
             // test malformed URL
-            if (!variableRegExp.matcher(url).find() && toURL(url) == null) {
+            if (!variableRegExp.matcher(url).find() && !RegistryEndpoint.of(url).isValid()) {
                 return FormValidation.error(Messages.invalidServerURL());
             }
 
@@ -183,21 +225,6 @@ public class PyPIServer extends AbstractDescribableImpl<PyPIServer> implements S
             return "";
         }
 
-        private static URL toURL(final String url) {
-            URL result = null;
-
-            String fixedURL = Util.fixEmptyAndTrim(url);
-            if (fixedURL != null) {
-                try {
-                    return new URL(fixedURL);
-                } catch (MalformedURLException e) {
-                    // no filter based on hostname
-                }
-            }
-
-            return result;
-        }
-
     }
 
 }
\ No newline at end of file
@@ -17,27 +17,26 @@
 package com.github.nfalco79.jenkins.plugins.configfiles;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
-import com.cloudbees.plugins.credentials.domains.HostnameRequirement;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsLookup;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.CredentialsResolver;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.ExpiringCredentialsCache;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.ExpiringCredentialsSource.Token;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
-import hudson.Util;
 import hudson.model.Run;
 import hudson.util.Secret;
 
@@ -56,6 +55,7 @@ public final class PyPIServerHelper {
     private static final String SERVER_PASSWORD = "password";
 
     private final Collection<PyPIServer> servers;
+    private final Set<String> secrets = new LinkedHashSet<>();
 
     public PyPIServerHelper(@CheckForNull Collection<PyPIServer> servers) {
         this.servers = servers;
@@ -69,19 +69,27 @@ public final class PyPIServerHelper {
      * @return map of registry URL - credential
      */
     public Map<String, StandardUsernameCredentials> resolveCredentials(Run<?, ?> build) {
+        return resolveCredentials(build, CredentialsLookup.get());
+    }
+
+    /**
+     * Resolves all server credentials through the given resolver and returns a
+     * map paring registry URL to credential.
+     *
+     * @param build a build being run
+     * @param resolver the strategy to lookup credentials
+     * @return map of registry URL - credential
+     */
+    public Map<String, StandardUsernameCredentials> resolveCredentials(Run<?, ?> build, CredentialsResolver resolver) {
         Map<String, StandardUsernameCredentials> server2credential = new HashMap<>();
         for (PyPIServer server : servers) {
             String credentialsId = server.getCredentialsId();
             if (credentialsId != null) {
 
-                // create a domain filter based on registry URL
-                final URL serverURL = toURL(server.getUrl());
-                List<DomainRequirement> domainRequirements = Collections.emptyList();
-                if (serverURL != null) {
-                    domainRequirements = Collections.<DomainRequirement> singletonList(new HostnameRequirement(serverURL.getHost()));
-                }
+                // domain filter based on registry URL is computed once per registry
+                List<DomainRequirement> domainRequirements = server.getEndpoint().getDomainRequirements();
 
-                StandardUsernameCredentials c = CredentialsProvider.findCredentialById(credentialsId, StandardUsernameCredentials.class, build, domainRequirements);
+                StandardUsernameCredentials c = resolver.findCredentialById(credentialsId, StandardUsernameCredentials.class, build, domainRequirements);
                 if (c != null) {
                     server2credential.put(server.getUrl(), c);
                 }
@@ -119,8 +127,11 @@ public final class PyPIServerHelper {
             // add values to the user config file
             pypirc.set(serverName, SERVER_URL, server.getUrl());
             if (credentials != null) {
-                pypirc.set(serverName, SERVER_USERNAME, credentials.getUsername());
-                pypirc.set(serverName, SERVER_PASSWORD, Secret.toString(credentials.getPassword()));
+                Token token = ExpiringCredentialsCache.get().getToken(credentials);
+                pypirc.set(serverName, SERVER_USERNAME, token.getUsername());
+                String password = Secret.toString(token.getPassword());
+                pypirc.set(serverName, SERVER_PASSWORD, password);
+                secrets.add(password);
             }
         }
 
@@ -134,6 +145,15 @@ public final class PyPIServerHelper {
         return pypirc.toString();
     }
 
+    /**
+     * Returns the secrets written in the user config by this helper.
+     *
+     * @return the injected passwords and tokens
+     */
+    public Set<String> getSecrets() {
+        return secrets;
+    }
+
     @NonNull
     private String fixURL(@NonNull final String registryURL) {
         String url = registryURL;
@@ -144,12 +164,13 @@ public final class PyPIServerHelper {
     }
 
     @NonNull
-    public String calculatePrefix(@NonNull final String registryURL) {
-        String trimmedURL = trimSlash(registryURL);
+    public String calculatePrefix(@NonNull final PyPIServer server) {
+        String trimmedURL = trimSlash(server.getUrl());
 
-        URL url = toURL(trimmedURL);
-        if (url == null) {
-            throw new IllegalArgumentException("Invalid url " + registryURL);
+        // the entry endpoint is parsed once when the entry is created or loaded
+        URL url = server.getEndpoint().toURL();
+        if (url == null || trimmedURL == null) {
+            throw new IllegalArgumentException("Invalid url " + server.getUrl());
         }
 
         return "//" + trimmedURL.substring((url.getProtocol() + "://").length()) + '/';
@@ -168,20 +189,4 @@ public final class PyPIServerHelper {
         return url;
     }
 
-    @CheckForNull
-    private static URL toURL(@Nullable final String url) {
-        URL result = null;
-
-        String fixedURL = Util.fixEmptyAndTrim(url);
-        if (fixedURL != null) {
-            try {
-                return new URL(fixedURL);
-            } catch (MalformedURLException e) {
-                // no filter based on hostname
-            }
-        }
-
-        return result;
-    }
-
 }
@@ -28,7 +28,7 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 import ca.szc.configparser.Ini;
 import ca.szc.configparser.exceptions.IniParserException;
@@ -133,11 +133,14 @@ public class PyPIrc {
 
     /**
      * Creates a new section.
+     * <p>
+     * Keys of the section are kept in insertion order, so the same content
+     * always renders to the same text.
      *
      * @param section name
      */
     public void add(String section) {
-        ini.getSections().put(section, new HashMap<String, String>());
+        ini.getSections().put(section, new LinkedHashMap<String, String>());
     }
 
     /**
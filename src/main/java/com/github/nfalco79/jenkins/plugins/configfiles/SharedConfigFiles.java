@@ -0,0 +1,213 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Rendered config files shared on a node by the branches of the same run.
+ * <p>
+ * A shared file is addressed by run, node and content digest. The first
+ * branch that acquires it writes the file, the others wait for it and reuse
+ * the same path. Each branch releases the file at its end and the last one
+ * removes it from the node. A new owner of the same content writes a file
+ * with a new name, so a file still being removed by the previous owners is
+ * never reused.
+ * <p>
+ * When the owner fails, for any reason, the waiting branches are not failed
+ * with it, one of them becomes the new owner and writes its own copy.
+ * <p>
+ * Only the transfer and the write are shared, each branch still renders
+ * the content because it depends on the branch environment.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+final class SharedConfigFiles {
+
+    private static final Map<String, Holder> HOLDERS = new HashMap<>();
+    private static final Map<String, Holder> PATHS = new HashMap<>();
+    private static long generations;
+
+    private SharedConfigFiles() {
+    }
+
+    /**
+     * Acquires the shared file with the given content.
+     *
+     * @param run the externalizable id of the run
+     * @param node the name of the node
+     * @param digest the SHA-256 digest of the content
+     * @param inMemory if the file is written on a RAM-backed filesystem
+     * @return the lease of the shared file, the caller writes the file if it
+     *         is the owner
+     */
+    @NonNull
+    static Lease acquire(@NonNull String run, @NonNull String node, @NonNull String digest, boolean inMemory) {
+        String key = run + '\n' + node + '\n' + digest + '\n' + inMemory;
+        synchronized (HOLDERS) {
+            Holder holder = HOLDERS.get(key);
+            boolean owner = holder == null;
+            if (owner) {
+                holder = new Holder(key, node, ++generations);
+                HOLDERS.put(key, holder);
+            }
+            holder.count++;
+            return new Lease(holder, owner);
+        }
+    }
+
+    /**
+     * Releases a file on the given node.
+     *
+     * @param node the name of the node
+     * @param path the file path on the node
+     * @return {@code true} if the file is still held by other branches and
+     *         must not be removed
+     */
+    static boolean release(@CheckForNull String node, @NonNull String path) {
+        if (node == null) {
+            return false;
+        }
+        synchronized (HOLDERS) {
+            Holder holder = PATHS.get(node + '\n' + path);
+            if (holder == null) {
+                return false;
+            }
+            if (--holder.count > 0) {
+                return true;
+            }
+            HOLDERS.remove(holder.key);
+            PATHS.remove(node + '\n' + path);
+            return false;
+        }
+    }
+
+    private static class Holder {
+        private final String key;
+        private final String node;
+        private final long generation;
+        private final CompletableFuture<String> path = new CompletableFuture<>();
+        private int count;
+
+        Holder(String key, String node, long generation) {
+            this.key = key;
+            this.node = node;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * The hold of a branch on a shared file.
+     */
+    static final class Lease {
+        private final Holder holder;
+        private final boolean owner;
+
+        private Lease(Holder holder, boolean owner) {
+            this.holder = holder;
+            this.owner = owner;
+        }
+
+        /**
+         * Returns if the file must be written by the caller.
+         *
+         * @return {@code true} if this is the first lease on the file
+         */
+        public boolean isOwner() {
+            return owner;
+        }
+
+        /**
+         * Returns the name of the file on the node, unique per run, content
+         * and owner.
+         *
+         * @return the file name
+         */
+        @NonNull
+        public String getName() {
+            String name = holder.key + '\n' + holder.generation;
+            return ConfigFileBundle.sha256(name.getBytes(StandardCharsets.UTF_8)) + ".tmp";
+        }
+
+        /**
+         * Notifies the waiting branches that the file was written.
+         *
+         * @param path the file path on the node
+         */
+        public void written(@NonNull String path) {
+            synchronized (HOLDERS) {
+                PATHS.put(holder.node + '\n' + path, holder);
+                holder.path.complete(path);
+            }
+        }
+
+        /**
+         * Notifies the waiting branches that the file could not be written.
+         *
+         * @param cause the write failure
+         */
+        public void failed(@NonNull Throwable cause) {
+            synchronized (HOLDERS) {
+                HOLDERS.remove(holder.key, holder);
+                holder.path.completeExceptionally(cause);
+            }
+        }
+
+        /**
+         * Waits the owner writes the file.
+         *
+         * @return the file path on the node or {@code null} if the owner
+         *         failed, the caller should acquire the file again
+         * @throws InterruptedException if interrupted while waiting
+         */
+        @CheckForNull
+        public String await() throws InterruptedException {
+            try {
+                return holder.path.get();
+            } catch (ExecutionException e) {
+                // the owner failure belongs to its branch
+                return null;
+            }
+        }
+
+        /**
+         * Gives up a lease whose file was not yet received.
+         *
+         * @return the file path if it was written meanwhile, the caller must
+         *         release it, otherwise {@code null}
+         */
+        @CheckForNull
+        public String abandon() {
+            synchronized (HOLDERS) {
+                if (holder.path.isDone() && !holder.path.isCompletedExceptionally()) {
+                    return holder.path.getNow(null);
+                }
+                holder.count--;
+                return null;
+            }
+        }
+    }
+
+}
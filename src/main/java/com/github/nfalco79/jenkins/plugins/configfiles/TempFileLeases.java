@@ -0,0 +1,363 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.init.Terminator;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * The temporary files written by runs on nodes.
+ * <p>
+ * Files generated for a run on a node are held by a lease that is stored
+ * on disk shortly after, they are removed in a single remote call when the
+ * step or the run that wrote them ends. Leases left behind by a controller restart or a
+ * lost connection to the node are expired when their run is no longer
+ * building and periodically swept, so rendered credentials are not left on
+ * nodes.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+@Extension
+public class TempFileLeases extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(TempFileLeases.class.getName());
+
+    private static final long SWEEP_PERIOD = SystemProperties.getLong(TempFileLeases.class.getName() + ".sweepPeriod", TimeUnit.MINUTES.toMillis(15));
+    private static final long MAX_AGE = SystemProperties.getLong(TempFileLeases.class.getName() + ".maxAge", TimeUnit.DAYS.toMillis(7));
+    private static final long SAVE_DELAY = SystemProperties.getLong(TempFileLeases.class.getName() + ".saveDelay", 5000L);
+
+    public static TempFileLeases get() {
+        return ExtensionList.lookupSingleton(TempFileLeases.class);
+    }
+
+    private final Map<String, Lease> leases = new LinkedHashMap<>();
+    private boolean loaded;
+    private boolean scheduled;
+    // keeps the writes in the same order of the changes they store
+    private final Object saveLock = new Object();
+
+    public TempFileLeases() {
+        super("Config files temporary files sweeper");
+    }
+
+    /**
+     * Leases the given files written by a run on a node.
+     *
+     * @param build the run that wrote the files
+     * @param node the name of the node
+     * @param paths the file paths on the node
+     */
+    public void acquire(@NonNull Run<?, ?> build, @NonNull String node, @NonNull Collection<String> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            load();
+            leases.computeIfAbsent(key(build.getExternalizableId(), node), k -> new Lease(build.getExternalizableId(), node)).paths.addAll(paths);
+        }
+        // many builds share one store, the lease survives a crash unless it
+        // happens within the save delay
+        scheduleSave();
+    }
+
+    /**
+     * Releases the given files once removed from the node.
+     *
+     * @param build the run that wrote the files
+     * @param node the name of the node
+     * @param paths the removed file paths
+     */
+    public void release(@NonNull Run<?, ?> build, @NonNull String node, @NonNull Collection<String> paths) {
+        release(build.getExternalizableId(), node, paths);
+    }
+
+    private void release(String run, String node, Collection<String> paths) {
+        synchronized (this) {
+            load();
+            String key = key(run, node);
+            Lease lease = leases.get(key);
+            if (lease == null || !lease.paths.removeAll(paths)) {
+                return;
+            }
+            if (lease.paths.isEmpty()) {
+                leases.remove(key);
+            }
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Returns the files still leased by the given run.
+     *
+     * @param build a run
+     * @return the leased file paths of all nodes
+     */
+    @NonNull
+    public synchronized Set<String> getLeased(@NonNull Run<?, ?> build) {
+        load();
+        Set<String> paths = new LinkedHashSet<>();
+        for (Lease lease : leases.values()) {
+            if (lease.run.equals(build.getExternalizableId())) {
+                paths.addAll(lease.paths);
+            }
+        }
+        return paths;
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return SWEEP_PERIOD;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        sweep(null);
+    }
+
+    /**
+     * Removes the files of expired leases from their nodes.
+     *
+     * @param run the externalizable id of the run whose leases are expired,
+     *        if {@code null} leases of runs no longer building are expired
+     * @throws InterruptedException if interrupted while waiting a node
+     */
+    void sweep(@CheckForNull String run) throws InterruptedException {
+        List<Lease> expired = new ArrayList<>();
+        synchronized (this) {
+            load();
+            for (Lease lease : leases.values()) {
+                if (run != null ? lease.run.equals(run) : isExpired(lease)) {
+                    expired.add(new Lease(lease));
+                }
+            }
+        }
+
+        for (Lease lease : expired) {
+            Node node = lease.node.isEmpty() ? Jenkins.get() : Jenkins.get().getNode(lease.node);
+            Computer computer = node != null ? node.toComputer() : null;
+            VirtualChannel channel = computer != null ? computer.getChannel() : null;
+            if (node == null) {
+                // the node and its files are gone
+                release(lease.run, lease.node, lease.paths);
+            } else if (channel != null) {
+                try {
+                    channel.call(new DeleteFiles(lease.paths));
+                    release(lease.run, lease.node, lease.paths);
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to remove temporary files of " + lease.run + " from " + lease.node, e);
+                }
+            } else if (System.currentTimeMillis() - lease.created > MAX_AGE) {
+                LOGGER.log(Level.WARNING, "Node {0} is offline since too long, {1} temporary files of {2} are no longer tracked",
+                        new Object[] { lease.node, lease.paths.size(), lease.run });
+                release(lease.run, lease.node, lease.paths);
+            }
+        }
+    }
+
+    private static boolean isExpired(Lease lease) {
+        Run<?, ?> build = Run.fromExternalizableId(lease.run);
+        return build == null || !build.isBuilding();
+    }
+
+    /**
+     * Removes the given files from the node of the channel.
+     *
+     * @param channel the channel of the node
+     * @param paths the file paths on the node
+     * @throws IOException in case of I/O failure
+     * @throws InterruptedException if interrupted while waiting the node
+     */
+    public static void delete(@NonNull VirtualChannel channel, @NonNull Collection<String> paths) throws IOException, InterruptedException {
+        if (!paths.isEmpty()) {
+            channel.call(new DeleteFiles(paths));
+        }
+    }
+
+    private static String key(String run, String node) {
+        return run + '\n' + node;
+    }
+
+    private synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        XmlFile file = getLeasesFile();
+        if (file.exists()) {
+            try {
+                @SuppressWarnings("unchecked")
+                List<Lease> stored = (List<Lease>) file.read();
+                for (Lease lease : stored) {
+                    leases.put(key(lease.run, lease.node), lease);
+                }
+            } catch (IOException | ClassCastException e) {
+                LOGGER.log(Level.WARNING, "Failed to load temporary files leases", e);
+            }
+        }
+    }
+
+    private void scheduleSave() {
+        synchronized (this) {
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        Timer.get().schedule(this::save, SAVE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the leases to disk if changed since the last save.
+     */
+    void save() {
+        synchronized (saveLock) {
+            List<Lease> stored = new ArrayList<>();
+            synchronized (this) {
+                if (!scheduled) {
+                    return;
+                }
+                scheduled = false;
+                for (Lease lease : leases.values()) {
+                    stored.add(new Lease(lease));
+                }
+            }
+            // the store is written out of the instance lock, builds go on meanwhile
+            try {
+                getLeasesFile().write(stored);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to save temporary files leases", e);
+            }
+        }
+    }
+
+    /**
+     * Stores the leases not yet saved when Jenkins shuts down.
+     */
+    @Terminator
+    public static void flush() {
+        get().save();
+    }
+
+    private XmlFile getLeasesFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.get().getRootDir(), TempFileLeases.class.getName() + ".xml"));
+    }
+
+    /**
+     * The files written by a run on a node.
+     */
+    static class Lease {
+        private final String run;
+        private final String node;
+        private final long created;
+        private final Set<String> paths = new LinkedHashSet<>();
+
+        Lease(String run, String node) {
+            this.run = run;
+            this.node = node;
+            this.created = System.currentTimeMillis();
+        }
+
+        Lease(Lease lease) {
+            this.run = lease.run;
+            this.node = lease.node;
+            this.created = lease.created;
+            this.paths.addAll(lease.paths);
+        }
+    }
+
+    /**
+     * Removes a batch of files and folders from the node.
+     */
+    private static class DeleteFiles extends MasterToSlaveCallable<Void, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> paths;
+
+        DeleteFiles(Collection<String> paths) {
+            this.paths = new ArrayList<>(paths);
+        }
+
+        @Override
+        public Void call() throws IOException {
+            IOException failure = null;
+            for (String path : paths) {
+                File file = new File(path);
+                try {
+                    if (file.exists()) {
+                        Util.deleteRecursive(file);
+                    }
+                } catch (IOException e) {
+                    // try to remove the other files anyway
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Expires the leases of a run when it completes.
+     */
+    @Extension
+    public static class RunCompletion extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(Run<?, ?> run, @NonNull TaskListener listener) {
+            String id = run.getExternalizableId();
+            Timer.get().submit(() -> {
+                try {
+                    TempFileLeases.get().sweep(id);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+    }
+
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.console.ConsoleLogFilter;
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+
+/**
+ * The secrets written in config files by a build, masked in its log.
+ * <p>
+ * Each secret is registered also in its base64 and URL-encoded forms. All
+ * secrets of a build are masked in one pass per log line, so the cost of
+ * masking does not grow with the number of secrets. A log stream sent to an
+ * agent carries only salted digests of the secrets, never their values.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public final class BuildSecrets {
+
+    private static final Map<String, BuildSecrets> REGISTRY = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the secrets of the given build.
+     *
+     * @param build a build being run
+     * @return the secrets registry of the build
+     */
+    @NonNull
+    public static BuildSecrets of(@NonNull Run<?, ?> build) {
+        return REGISTRY.computeIfAbsent(build.getExternalizableId(), k -> new BuildSecrets());
+    }
+
+    /**
+     * Returns a log filter that masks the secrets of the decorated build.
+     * <p>
+     * Used by the steps that render config files, the decorated builds are
+     * registered even if they have no secrets yet.
+     *
+     * @return a new log filter
+     */
+    @NonNull
+    public static ConsoleLogFilter newLogFilter() {
+        return new MaskingLogFilter(true);
+    }
+
+    private final Set<String> secrets = new LinkedHashSet<>();
+    private volatile SecretMatcher matcher;
+    private volatile HashedSecretMatcher hashedMatcher;
+
+    BuildSecrets() {
+    }
+
+    /**
+     * Registers the given secrets to be masked.
+     *
+     * @param values the secrets, blank values are ignored
+     */
+    public void addAll(@NonNull Collection<String> values) {
+        synchronized (secrets) {
+            boolean changed = false;
+            for (String value : values) {
+                if (value == null || value.trim().isEmpty()) {
+                    continue;
+                }
+                changed |= secrets.add(value);
+                changed |= secrets.add(Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8)));
+                changed |= secrets.add(URLEncoder.encode(value, StandardCharsets.UTF_8));
+            }
+            if (changed) {
+                matcher = null;
+                hashedMatcher = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the matcher of all registered secrets.
+     *
+     * @return the secrets matcher
+     */
+    @NonNull
+    public SecretMatcher getMatcher() {
+        SecretMatcher result = matcher;
+        if (result == null) {
+            synchronized (secrets) {
+                result = matcher;
+                if (result == null) {
+                    result = SecretMatcher.compile(new ArrayList<>(secrets));
+                    matcher = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the matcher of all registered secrets that can be sent to an
+     * agent.
+     *
+     * @return the secrets matcher that knows only their digests
+     */
+    @NonNull
+    public HashedSecretMatcher getHashedMatcher() {
+        HashedSecretMatcher result = hashedMatcher;
+        if (result == null) {
+            synchronized (secrets) {
+                result = hashedMatcher;
+                if (result == null) {
+                    result = HashedSecretMatcher.compile(new ArrayList<>(secrets));
+                    hashedMatcher = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Masks in the build log the secrets written in config files.
+     * <p>
+     * As global filter only builds that have already registered secrets are
+     * decorated.
+     */
+    @Extension
+    public static class MaskingLogFilter extends ConsoleLogFilter implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean register;
+
+        public MaskingLogFilter() {
+            this(false);
+        }
+
+        MaskingLogFilter(boolean register) {
+            this.register = register;
+        }
+
+        @Override
+        public OutputStream decorateLogger(@CheckForNull Run build, OutputStream logger) throws IOException, InterruptedException {
+            if (build == null) {
+                return logger;
+            }
+            BuildSecrets secrets = register ? of(build) : REGISTRY.get(build.getExternalizableId());
+            if (secrets == null) {
+                return logger;
+            }
+            return new MaskingOutputStream(logger, secrets);
+        }
+    }
+
+    /**
+     * Masks the log on the controller, the secrets added while the build
+     * runs are masked as soon as they are registered.
+     */
+    private static class MaskingOutputStream extends LineTransformationOutputStream implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final OutputStream out;
+        private final transient BuildSecrets secrets;
+
+        MaskingOutputStream(OutputStream out, BuildSecrets secrets) {
+            this.out = out;
+            this.secrets = secrets;
+        }
+
+        private Object writeReplace() {
+            // sent to an agent without the secret values
+            return new HashedMaskingOutputStream(out, secrets.getHashedMatcher());
+        }
+
+        @Override
+        protected void eol(byte[] b, int len) throws IOException {
+            SecretMatcher matcher = secrets.getMatcher();
+            if (matcher.isEmpty()) {
+                out.write(b, 0, len);
+                return;
+            }
+            byte[] masked = matcher.mask(b, len);
+            out.write(masked, 0, masked == b ? len : masked.length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Masks the log on an agent, with the secrets registered when the stream
+     * was sent.
+     */
+    private static class HashedMaskingOutputStream extends LineTransformationOutputStream implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final OutputStream out;
+        private final HashedSecretMatcher matcher;
+
+        HashedMaskingOutputStream(OutputStream out, HashedSecretMatcher matcher) {
+            this.out = out;
+            this.matcher = matcher;
+        }
+
+        @Override
+        protected void eol(byte[] b, int len) throws IOException {
+            if (matcher.isEmpty()) {
+                out.write(b, 0, len);
+                return;
+            }
+            byte[] masked = matcher.mask(b, len);
+            out.write(masked, 0, masked == b ? len : masked.length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Drops the secrets of a build when it completes.
+     */
+    @Extension
+    public static class Cleaner extends RunListener<Run<?, ?>> {
+        @Override
+        public void onFinalized(Run<?, ?> build) {
+            REGISTRY.remove(build.getExternalizableId());
+        }
+
+        @Override
+        public void onDeleted(Run<?, ?> build) {
+            REGISTRY.remove(build.getExternalizableId());
+        }
+    }
+
+}
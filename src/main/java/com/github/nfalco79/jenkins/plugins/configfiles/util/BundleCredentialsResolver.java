@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.cloudbees.plugins.credentials.common.IdCredentials;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Run;
+
+/**
+ * Resolves the credentials of many config files rendered together.
+ * <p>
+ * Each credentials is looked up only once even if it is referenced by more
+ * than one config file, also when the credentials does not exist.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public final class BundleCredentialsResolver implements CredentialsResolver {
+
+    private final CredentialsResolver delegate;
+    private final Map<CredentialsLookup.Key, Optional<IdCredentials>> resolved = new HashMap<>();
+
+    /**
+     * Default constructor.
+     *
+     * @param delegate the resolver used for the credentials not yet resolved
+     */
+    public BundleCredentialsResolver(@NonNull CredentialsResolver delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    @CheckForNull
+    public synchronized <C extends IdCredentials> C findCredentialById(@NonNull String id, @NonNull Class<C> type, @NonNull Run<?, ?> run, @NonNull List<DomainRequirement> domainRequirements) {
+        CredentialsLookup.Key key = new CredentialsLookup.Key(id, type, run.getExternalizableId(), domainRequirements);
+        Optional<IdCredentials> credentials = resolved.get(key);
+        if (credentials == null) { // NOSONAR
+            IdCredentials found = delegate.findCredentialById(id, type, run, domainRequirements);
+            credentials = Optional.ofNullable(found);
+            resolved.put(key, credentials);
+        }
+        return type.cast(credentials.orElse(null));
+    }
+
+    /**
+     * Returns how many distinct credentials lookup were performed.
+     *
+     * @return the number of lookups
+     */
+    public synchronized int size() {
+        return resolved.size();
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.IdCredentials;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import com.cloudbees.plugins.credentials.domains.HostnameRequirement;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Run;
+import jenkins.util.SystemProperties;
+
+/**
+ * Credentials lookup shared by all builds.
+ * <p>
+ * Concurrent lookups of the same credentials (same id, type, job and domain
+ * requirements) are coalesced into a single call to the credentials stores.
+ * Calls that really reach the credentials stores are throttled by a global
+ * token bucket, the time a lookup waits to be admitted is logged. The usage
+ * of found credentials is tracked in background for each build.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public final class CredentialsLookup implements CredentialsResolver {
+    private static final Logger LOGGER = Logger.getLogger(CredentialsLookup.class.getName());
+
+    private static final int PERMITS_PER_SECOND = SystemProperties.getInteger(CredentialsLookup.class.getName() + ".permitsPerSecond", 100);
+    private static final int BURST = SystemProperties.getInteger(CredentialsLookup.class.getName() + ".burst", 20);
+
+    private static final CredentialsLookup INSTANCE = new CredentialsLookup(new TokenBucket(PERMITS_PER_SECOND, BURST));
+
+    /**
+     * Returns the lookup instance shared by all builds.
+     *
+     * @return the shared lookup
+     */
+    public static CredentialsLookup get() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentMap<Object, CompletableFuture<Object>> inflight = new ConcurrentHashMap<>();
+    private final TokenBucket bucket;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong totalWait = new AtomicLong();
+
+    CredentialsLookup(TokenBucket bucket) {
+        this.bucket = bucket;
+    }
+
+    /**
+     * Same as
+     * {@link CredentialsProvider#findCredentialById(String, Class, Run, List)}
+     * but concurrent lookups of the same credentials share the same call.
+     *
+     * @param <C> the credentials type
+     * @param id the credentials identifier
+     * @param type the type of credentials to look for
+     * @param run the build being run
+     * @param domainRequirements the domain requirements to match
+     * @return the credentials or {@code null} if not found
+     */
+    @Override
+    @CheckForNull
+    public <C extends IdCredentials> C findCredentialById(@NonNull String id, @NonNull Class<C> type, @NonNull Run<?, ?> run, @NonNull List<DomainRequirement> domainRequirements) {
+        Supplier<C> lookup = () -> CredentialsProvider.findCredentialById(id, type, run, domainRequirements);
+        C credentials;
+        if (id.contains("${")) {
+            // parameter expressions are resolved against each build, can not be shared
+            credentials = admit(lookup);
+        } else {
+            Key key = new Key(id, type, run.getParent().getFullName(), domainRequirements);
+            credentials = type.cast(execute(key, lookup));
+        }
+
+        if (credentials != null) {
+            // the lookup could be shared with other builds, each one tracks its usage
+            CredentialsUsageTracker.get().track(run, credentials);
+        }
+        return credentials;
+    }
+
+    /**
+     * Executes the given lookup or wait for the result of the lookup already
+     * in progress for the same key.
+     *
+     * @param <V> the type of result
+     * @param key the lookup key
+     * @param lookup the lookup to perform
+     * @return the lookup result
+     */
+    <V> V execute(@NonNull Object key, @NonNull Supplier<V> lookup) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inflight.putIfAbsent(key, future);
+        if (running != null) {
+            return join(running);
+        }
+
+        try {
+            V result = admit(lookup);
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, future);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> V join(CompletableFuture<Object> future) {
+        try {
+            return (V) future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private <V> V admit(Supplier<V> lookup) {
+        int queued = waiting.incrementAndGet();
+        try {
+            long wait = bucket.acquire();
+            if (wait > 0) {
+                totalWait.addAndGet(wait);
+                LOGGER.log(Level.FINE, "Credentials lookup waited {0} ms to be admitted, {1} lookups in queue", //
+                        new Object[] { TimeUnit.NANOSECONDS.toMillis(wait), queued });
+            }
+        } catch (InterruptedException e) {
+            // the build is going to be aborted, do not wait anymore
+            Thread.currentThread().interrupt();
+        } finally {
+            waiting.decrementAndGet();
+        }
+        return lookup.get();
+    }
+
+    /**
+     * Returns the number of lookups waiting to be admitted.
+     *
+     * @return the admission queue length
+     */
+    public int getQueueLength() {
+        return waiting.get();
+    }
+
+    /**
+     * Returns the total time spent by lookups waiting to be admitted.
+     *
+     * @return the total wait time in milliseconds
+     */
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWait.get());
+    }
+
+    /**
+     * Identifies a credentials lookup.
+     */
+    static final class Key {
+        private final String id;
+        private final Class<?> type;
+        private final String context;
+        private final List<Object> domain;
+
+        Key(String id, Class<?> type, String context, List<DomainRequirement> domainRequirements) {
+            this.id = id;
+            this.type = type;
+            this.context = context;
+            this.domain = new ArrayList<>(domainRequirements.size());
+            for (DomainRequirement requirement : domainRequirements) {
+                if (requirement instanceof HostnameRequirement) {
+                    // requirements does not implements equals
+                    domain.add(((HostnameRequirement) requirement).getPartialHostname());
+                } else {
+                    domain.add(requirement);
+                }
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, type, context, domain);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return id.equals(other.id) && type == other.type && context.equals(other.context) && domain.equals(other.domain);
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import java.util.List;
+
+import com.cloudbees.plugins.credentials.common.IdCredentials;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Run;
+
+/**
+ * Strategy used by helpers to resolve credentials of a build.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public interface CredentialsResolver {
+
+    /**
+     * Finds the credentials with the given identifier.
+     *
+     * @param <C> the credentials type
+     * @param id the credentials identifier
+     * @param type the type of credentials to look for
+     * @param run the build being run
+     * @param domainRequirements the domain requirements to match
+     * @return the credentials or {@code null} if not found
+     */
+    @CheckForNull
+    <C extends IdCredentials> C findCredentialById(@NonNull String id, @NonNull Class<C> type, @NonNull Run<?, ?> run, @NonNull List<DomainRequirement> domainRequirements);
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Run;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Records the credentials used by builds in background.
+ * <p>
+ * Tracking the usage of a credentials writes its fingerprint, so usages are
+ * queued and written in batch by a background thread some time later,
+ * the same credentials used many times by a build is tracked once per batch.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public final class CredentialsUsageTracker {
+    private static final Logger LOGGER = Logger.getLogger(CredentialsUsageTracker.class.getName());
+
+    private static final long FLUSH_DELAY = SystemProperties.getLong(CredentialsUsageTracker.class.getName() + ".flushDelay", 5000L);
+
+    private static final CredentialsUsageTracker INSTANCE = new CredentialsUsageTracker();
+
+    /**
+     * Returns the tracker shared by all builds.
+     *
+     * @return the shared tracker
+     */
+    public static CredentialsUsageTracker get() {
+        return INSTANCE;
+    }
+
+    private final Map<Run<?, ?>, Set<Credentials>> pending = new LinkedHashMap<>();
+    private boolean scheduled;
+
+    CredentialsUsageTracker() {
+    }
+
+    /**
+     * Queues the usage of the given credentials by a build.
+     *
+     * @param run the build that uses the credentials
+     * @param credentials the used credentials
+     */
+    public void track(@NonNull Run<?, ?> run, @NonNull Credentials credentials) {
+        synchronized (this) {
+            pending.computeIfAbsent(run, k -> new LinkedHashSet<>()).add(credentials);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        Timer.get().schedule(this::flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes all queued usages.
+     */
+    void flush() {
+        Map<Run<?, ?>, Set<Credentials>> batch;
+        synchronized (this) {
+            batch = new LinkedHashMap<>(pending);
+            pending.clear();
+            scheduled = false;
+        }
+
+        for (Map.Entry<Run<?, ?>, Set<Credentials>> usage : batch.entrySet()) {
+            try {
+                CredentialsProvider.trackAll(usage.getKey(), new ArrayList<>(usage.getValue()));
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to track credentials usage of " + usage.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Returns how many builds have usages not yet written.
+     *
+     * @return the number of queued builds
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.ExpiringCredentialsSource.Token;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import hudson.util.Secret;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Keeps the last good token of short-lived registry credentials.
+ * <p>
+ * Tokens are minted by an {@link ExpiringCredentialsSource} the first time
+ * the credentials are used and then renewed in background ahead of their
+ * expiration, so builds read the token without wait for the backend. If a
+ * renew fails the last good token is served and the renew is retried later,
+ * once the token is expired the build mints a new one or fails.
+ * <p>
+ * Tokens are kept by credentials id and content, so credentials returned as
+ * a new instance by each lookup share the same token while credentials with
+ * the same id but different secrets, defined in different stores, do not.
+ * The number of tokens is bounded and tokens no more used by builds are
+ * discarded.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public final class ExpiringCredentialsCache {
+    private static final Logger LOGGER = Logger.getLogger(ExpiringCredentialsCache.class.getName());
+
+    private static final long REFRESH_AHEAD = SystemProperties.getLong(ExpiringCredentialsCache.class.getName() + ".refreshAhead", TimeUnit.MINUTES.toMillis(1));
+    private static final long RETRY_DELAY = SystemProperties.getLong(ExpiringCredentialsCache.class.getName() + ".retryDelay", TimeUnit.SECONDS.toMillis(10));
+    private static final long IDLE_TIMEOUT = SystemProperties.getLong(ExpiringCredentialsCache.class.getName() + ".idleTimeout", TimeUnit.HOURS.toMillis(1));
+    private static final long CACHE_SIZE = SystemProperties.getLong(ExpiringCredentialsCache.class.getName() + ".cacheSize", 1000L);
+
+    private static final ExpiringCredentialsCache INSTANCE = new ExpiringCredentialsCache();
+
+    /**
+     * Returns the cache shared by all builds.
+     *
+     * @return the shared cache
+     */
+    public static ExpiringCredentialsCache get() {
+        return INSTANCE;
+    }
+
+    private final Cache<Key, Holder> holders = CacheBuilder.newBuilder() //
+            .maximumSize(CACHE_SIZE) //
+            .expireAfterAccess(IDLE_TIMEOUT, TimeUnit.MILLISECONDS) //
+            // an evicted holder stops its renew loop
+            .<Key, Holder> removalListener(notification -> notification.getValue().evicted = true) //
+            .build();
+
+    /**
+     * Returns the token to use for the given credentials.
+     * <p>
+     * If no {@link ExpiringCredentialsSource} handles the credentials, the
+     * token is the credentials username and password.
+     *
+     * @param credentials the resolved registry credentials
+     * @return the last good token
+     * @throws IOException if no token was ever minted and the source fails
+     */
+    @NonNull
+    public Token getToken(@NonNull StandardUsernamePasswordCredentials credentials) throws IOException {
+        ExpiringCredentialsSource source = ExpiringCredentialsSource.of(credentials);
+        if (source == null) {
+            return new Token(credentials.getUsername(), credentials.getPassword(), Token.NEVER);
+        }
+        return getToken(credentials, source);
+    }
+
+    @NonNull
+    Token getToken(@NonNull StandardUsernamePasswordCredentials credentials, @NonNull ExpiringCredentialsSource source) throws IOException {
+        Holder holder = holders.asMap().computeIfAbsent(new Key(credentials, source), Holder::new);
+        return holder.get(credentials);
+    }
+
+    /**
+     * Renews all tokens now.
+     */
+    void refreshAll() {
+        for (Holder holder : holders.asMap().values()) {
+            holder.refresh();
+        }
+    }
+
+    /**
+     * Returns the number of kept tokens.
+     *
+     * @return the number of tokens
+     */
+    long size() {
+        holders.cleanUp();
+        return holders.size();
+    }
+
+    /**
+     * Discards all tokens.
+     */
+    public void clear() {
+        holders.invalidateAll();
+    }
+
+    private final class Holder {
+        private final Key key;
+        // the last resolved instance, used to renew the token, written under
+        // the holder lock
+        private volatile StandardUsernamePasswordCredentials credentials;
+        private volatile Token token;
+        private volatile boolean evicted;
+
+        private Holder(Key key) {
+            this.key = key;
+        }
+
+        private Token get(StandardUsernamePasswordCredentials resolved) throws IOException {
+            synchronized (this) {
+                // the renew loop mints with the last resolved instance
+                credentials = resolved;
+                Token current = token;
+                if (current != null && current.getExpiresAt() > System.currentTimeMillis()) {
+                    return current;
+                }
+                if (current == null) {
+                    // only the first use of credentials waits for the source
+                    current = key.source.mint(resolved);
+                    token = current;
+                    schedule(current);
+                    return current;
+                }
+                // the background renew kept failing until the token expired
+                try {
+                    current = key.source.mint(resolved);
+                } catch (IOException e) {
+                    throw new IOException("Token for credentials " + key.id + " is expired and could not be renewed: " + e.getMessage(), e);
+                }
+                token = current;
+                return current;
+            }
+        }
+
+        private void schedule(Token current) {
+            if (current.getExpiresAt() == Token.NEVER) {
+                return;
+            }
+            long delay = current.getExpiresAt() - REFRESH_AHEAD - System.currentTimeMillis();
+            schedule(Math.max(delay, RETRY_DELAY));
+        }
+
+        private void schedule(long delay) {
+            Timer.get().schedule(this::renew, delay, TimeUnit.MILLISECONDS);
+        }
+
+        private void renew() {
+            // expire idle holders, this also notifies the eviction
+            holders.cleanUp();
+            if (evicted) {
+                return;
+            }
+            if (refresh()) {
+                schedule(token);
+            } else {
+                schedule(RETRY_DELAY);
+            }
+        }
+
+        private boolean refresh() {
+            try {
+                token = key.source.mint(credentials);
+                return true;
+            } catch (IOException | RuntimeException e) {
+                // keep serving the last good token
+                LOGGER.log(Level.WARNING, "Failed to renew token for credentials " + key.id, e);
+                return false;
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String id;
+        private final String fingerprint;
+        private final ExpiringCredentialsSource source;
+
+        private Key(StandardUsernamePasswordCredentials credentials, ExpiringCredentialsSource source) {
+            this.id = credentials.getId();
+            // credentials equals only compares the id, the same id could be
+            // defined with different secrets in different stores
+            this.fingerprint = fingerprint(credentials.getClass().getName() + '\n' + credentials.getUsername() + '\n' + Secret.toString(credentials.getPassword()));
+            this.source = source;
+        }
+
+        private static String fingerprint(String value) {
+            try {
+                return Util.toHexString(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+            } catch (NoSuchAlgorithmException e) {
+                // every JVM must support SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, fingerprint, System.identityHashCode(source));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return id.equals(other.id) && fingerprint.equals(other.fingerprint) && source == other.source;
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.util.Secret;
+
+/**
+ * Source of short-lived tokens for registry credentials.
+ * <p>
+ * Implementations mint a token for the credentials they are able to handle,
+ * tokens are kept by the {@link ExpiringCredentialsCache} and renewed in
+ * background before they expire.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public abstract class ExpiringCredentialsSource implements ExtensionPoint {
+
+    /**
+     * Returns if this source mints tokens for the given credentials.
+     *
+     * @param credentials the resolved registry credentials
+     * @return {@code true} if this source handles the given credentials
+     */
+    public abstract boolean isApplicable(@NonNull StandardUsernamePasswordCredentials credentials);
+
+    /**
+     * Mints a new token for the given credentials.
+     *
+     * @param credentials the resolved registry credentials
+     * @return a new token
+     * @throws IOException in case the backend is not able to mint a token
+     */
+    @NonNull
+    public abstract Token mint(@NonNull StandardUsernamePasswordCredentials credentials) throws IOException;
+
+    /**
+     * Returns the first source that handles the given credentials.
+     *
+     * @param credentials the resolved registry credentials
+     * @return the source or {@code null} if no one handles the credentials
+     */
+    @CheckForNull
+    public static ExpiringCredentialsSource of(@NonNull StandardUsernamePasswordCredentials credentials) {
+        for (ExpiringCredentialsSource source : ExtensionList.lookup(ExpiringCredentialsSource.class)) {
+            if (source.isApplicable(credentials)) {
+                return source;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A token valid until its expiration time.
+     */
+    public static final class Token implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Expiration time of a token that never expires.
+         */
+        public static final long NEVER = Long.MAX_VALUE;
+
+        private final String username;
+        private final Secret password;
+        private final long expiresAt;
+
+        /**
+         * Default constructor.
+         *
+         * @param username the account name
+         * @param password the token secret
+         * @param expiresAt the expiration time in milliseconds since epoch
+         */
+        public Token(@NonNull String username, @NonNull Secret password, long expiresAt) {
+            this.username = username;
+            this.password = password;
+            this.expiresAt = expiresAt;
+        }
+
+        @NonNull
+        public String getUsername() {
+            return username;
+        }
+
+        @NonNull
+        public Secret getPassword() {
+            return password;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        /**
+         * Returns if this token is expired.
+         *
+         * @param now the current time in milliseconds since epoch
+         * @return {@code true} if this token is expired at the given time
+         */
+        public boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+}
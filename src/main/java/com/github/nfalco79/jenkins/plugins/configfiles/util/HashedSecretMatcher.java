@@ -0,0 +1,200 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Masks many secrets at once in a text without knowing their values.
+ * <p>
+ * Only the length and a salted SHA-256 digest of each secret are kept, so
+ * this matcher can be sent to an agent. Each window of a secret length is
+ * first checked against a 16 bit rolling hash and only candidates are
+ * digested.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public final class HashedSecretMatcher implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final byte[] MASK = "****".getBytes(StandardCharsets.US_ASCII);
+    private static final int BASE = 31;
+    private static final int FILTER_MASK = 0xFFFF;
+
+    private final byte[] salt;
+    // groups of secrets by length in bytes, shortest first
+    private final Group[] groups;
+
+    private HashedSecretMatcher(byte[] salt, Group[] groups) {
+        this.salt = salt;
+        this.groups = groups;
+    }
+
+    /**
+     * Compiles the given secrets.
+     *
+     * @param secrets the texts to mask
+     * @return the matcher for the given secrets
+     */
+    @NonNull
+    public static HashedSecretMatcher compile(@NonNull Collection<String> secrets) {
+        byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+        MessageDigest digest = newDigest();
+
+        TreeMap<Integer, Group> groups = new TreeMap<>();
+        for (String secret : secrets) {
+            byte[] pattern = secret.getBytes(StandardCharsets.UTF_8);
+            if (pattern.length == 0) {
+                continue;
+            }
+            Group group = groups.computeIfAbsent(pattern.length, Group::new);
+            group.filter.set(hash(pattern, 0, pattern.length) & FILTER_MASK);
+            group.digests.add(digest(digest, salt, pattern, 0, pattern.length));
+        }
+        return new HashedSecretMatcher(salt, groups.values().toArray(new Group[0]));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int hash(byte[] text, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = hash * BASE + (text[i] & 0xFF);
+        }
+        return hash;
+    }
+
+    private static String digest(MessageDigest digest, byte[] salt, byte[] text, int offset, int length) {
+        digest.reset();
+        digest.update(salt);
+        digest.update(text, offset, length);
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    /**
+     * Returns if there is no secret to mask.
+     *
+     * @return {@code true} if compiled without secrets
+     */
+    public boolean isEmpty() {
+        return groups.length == 0;
+    }
+
+    /**
+     * Replaces all secrets in the given bytes with {@code ****}.
+     *
+     * @param text the bytes to mask
+     * @param length the number of bytes to consider
+     * @return the masked bytes, or the same array if no secret was found
+     */
+    @NonNull
+    public byte[] mask(@NonNull byte[] text, int length) {
+        // masked bytes, a match could overlap others of a different length
+        BitSet masked = null;
+        MessageDigest digest = null;
+        for (Group group : groups) {
+            int size = group.length;
+            if (size > length) {
+                break;
+            }
+            // BASE^(size - 1) to remove the leading byte of the window
+            int power = 1;
+            for (int i = 1; i < size; i++) {
+                power *= BASE;
+            }
+            int hash = hash(text, 0, size);
+            for (int start = 0;; start++) {
+                if (group.filter.get(hash & FILTER_MASK)) {
+                    if (digest == null) {
+                        digest = newDigest();
+                    }
+                    if (group.digests.contains(digest(digest, salt, text, start, size))) {
+                        if (masked == null) {
+                            masked = new BitSet(length);
+                        }
+                        masked.set(start, start + size);
+                    }
+                }
+                if (start + size >= length) {
+                    break;
+                }
+                hash = (hash - (text[start] & 0xFF) * power) * BASE + (text[start + size] & 0xFF);
+            }
+        }
+
+        if (masked == null) {
+            return text;
+        }
+
+        // adjacent or overlapping matches are replaced by a single mask
+        List<int[]> ranges = new ArrayList<>();
+        for (int start = masked.nextSetBit(0); start >= 0 && start < length; start = masked.nextSetBit(start)) {
+            int end = masked.nextClearBit(start);
+            ranges.add(new int[] { start, end });
+            start = end;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + ranges.size() * MASK.length);
+        int copied = 0;
+        for (int[] range : ranges) {
+            out.write(text, copied, range[0] - copied);
+            out.write(MASK, 0, MASK.length);
+            copied = range[1];
+        }
+        out.write(text, copied, length - copied);
+        return out.toByteArray();
+    }
+
+    /**
+     * The secrets of the same length.
+     */
+    private static final class Group implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int length;
+        private final BitSet filter = new BitSet(FILTER_MASK + 1);
+        private final Set<String> digests = new HashSet<>();
+
+        Group(int length) {
+            this.length = length;
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import java.io.File;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import jenkins.util.SystemProperties;
+
+/**
+ * Locates a RAM-backed filesystem on a node.
+ * <p>
+ * The location is {@code /dev/shm} unless a different tmpfs mount point is
+ * configured with the {@code RamDisk.path} system property on the controller.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public final class RamDisk {
+
+    private static final String DEFAULT_PATH = "/dev/shm";
+
+    private RamDisk() {
+    }
+
+    /**
+     * Returns the configured path of the RAM-backed filesystem.
+     * <p>
+     * This method must be called on the controller.
+     *
+     * @return the RAM-backed filesystem mount point
+     */
+    @NonNull
+    public static String getPath() {
+        String path = Util.fixEmptyAndTrim(SystemProperties.getString(RamDisk.class.getName() + ".path"));
+        return path != null ? path : DEFAULT_PATH;
+    }
+
+    /**
+     * Returns the RAM-backed folder if available on the current node.
+     * <p>
+     * This method must be called on the node.
+     *
+     * @param path the RAM-backed filesystem mount point
+     * @return the folder or {@code null} if the node has no RAM-backed
+     *         filesystem available
+     */
+    @CheckForNull
+    public static File locate(@NonNull String path) {
+        if (File.pathSeparatorChar == ';') {
+            // windows has no tmpfs
+            return null;
+        }
+        File folder = new File(path);
+        if (folder.isDirectory() && folder.canWrite()) {
+            return folder;
+        }
+        return null;
+    }
+
+}
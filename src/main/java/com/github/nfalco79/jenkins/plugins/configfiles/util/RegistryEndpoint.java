@@ -0,0 +1,171 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import com.cloudbees.plugins.credentials.domains.HostnameRequirement;
+import com.google.common.cache.CacheBuilder;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+
+/**
+ * The parsed URL of a registry.
+ * <p>
+ * Instances are immutable and cached by URL, the URL is parsed only the
+ * first time it is seen and then the same instance is shared by registries,
+ * helpers and validators.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public final class RegistryEndpoint {
+
+    private static final ConcurrentMap<String, RegistryEndpoint> ENDPOINTS = CacheBuilder.newBuilder() //
+            .weakValues() //
+            .<String, RegistryEndpoint> build() //
+            .asMap();
+    private static final RegistryEndpoint NONE = new RegistryEndpoint(null);
+
+    private final String url;
+    private final URL parsedURL;
+    private final List<DomainRequirement> domainRequirements;
+
+    private RegistryEndpoint(String url) {
+        this.url = url;
+
+        URL parsed = null;
+        if (url != null) {
+            try {
+                parsed = new URL(url);
+            } catch (MalformedURLException e) {
+                // contains variables or has not a protocol
+            }
+        }
+        this.parsedURL = parsed;
+        if (parsed != null) {
+            this.domainRequirements = Collections.<DomainRequirement> singletonList(new HostnameRequirement(parsed.getHost()));
+        } else {
+            // no filter based on hostname
+            this.domainRequirements = Collections.emptyList();
+        }
+    }
+
+    /**
+     * Returns the endpoint of the given URL.
+     *
+     * @param url the registry URL
+     * @return the shared endpoint instance for the given URL
+     */
+    @NonNull
+    public static RegistryEndpoint of(@CheckForNull String url) {
+        String fixedURL = Util.fixEmptyAndTrim(url);
+        if (fixedURL == null) {
+            return NONE;
+        }
+        return ENDPOINTS.computeIfAbsent(fixedURL, RegistryEndpoint::new);
+    }
+
+    /**
+     * Returns the registry URL as configured by the user.
+     *
+     * @return the trimmed URL
+     */
+    @CheckForNull
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns if the URL has been parsed successfully.
+     *
+     * @return {@code true} if the URL is well formed
+     */
+    public boolean isValid() {
+        return parsedURL != null;
+    }
+
+    /**
+     * Returns the parsed URL.
+     *
+     * @return the URL or {@code null} if the URL is not well formed
+     */
+    @CheckForNull
+    public URL toURL() {
+        return parsedURL;
+    }
+
+    @CheckForNull
+    public String getProtocol() {
+        return parsedURL != null ? parsedURL.getProtocol() : null;
+    }
+
+    @CheckForNull
+    public String getHost() {
+        return parsedURL != null ? parsedURL.getHost() : null;
+    }
+
+    public int getPort() {
+        return parsedURL != null ? parsedURL.getPort() : -1;
+    }
+
+    @CheckForNull
+    public String getPath() {
+        return parsedURL != null ? parsedURL.getPath() : null;
+    }
+
+    /**
+     * Returns the credentials domain filter based on the registry hostname.
+     *
+     * @return an unmodifiable list of requirements, empty if the URL is not
+     *         well formed
+     */
+    @NonNull
+    public List<DomainRequirement> getDomainRequirements() {
+        return domainRequirements;
+    }
+
+    @Override
+    public int hashCode() {
+        return url != null ? url.hashCode() : 0;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof RegistryEndpoint)) {
+            return false;
+        }
+        String other = ((RegistryEndpoint) obj).url;
+        return url != null ? url.equals(other) : other == null;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(url);
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Masks many secrets at once in a text.
+ * <p>
+ * The secrets are compiled in an Aho-Corasick automaton over the UTF-8 bytes
+ * so the time to mask a line depends only on the line length and not on the
+ * number of secrets.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public final class SecretMatcher {
+
+    private static final byte[] MASK = "****".getBytes(StandardCharsets.US_ASCII);
+
+    // sparse transitions of each state, keys are sorted
+    private final byte[][] keys;
+    private final int[][] next;
+    private final int[] fail;
+    // length of the longest secret that ends in each state
+    private final int[] match;
+
+    private SecretMatcher(byte[][] keys, int[][] next, int[] fail, int[] match) {
+        this.keys = keys;
+        this.next = next;
+        this.fail = fail;
+        this.match = match;
+    }
+
+    /**
+     * Compiles the given secrets.
+     *
+     * @param secrets the texts to mask
+     * @return the matcher for the given secrets
+     */
+    @NonNull
+    public static SecretMatcher compile(@NonNull Collection<String> secrets) {
+        List<byte[]> keys = new ArrayList<>();
+        List<int[]> next = new ArrayList<>();
+        List<Integer> match = new ArrayList<>();
+        keys.add(new byte[0]);
+        next.add(new int[0]);
+        match.add(0);
+
+        // trie of all secrets
+        for (String secret : secrets) {
+            byte[] pattern = secret.getBytes(StandardCharsets.UTF_8);
+            if (pattern.length == 0) {
+                continue;
+            }
+            int state = 0;
+            for (byte b : pattern) {
+                int child = find(keys.get(state), next.get(state), b);
+                if (child < 0) {
+                    child = keys.size();
+                    keys.add(new byte[0]);
+                    next.add(new int[0]);
+                    match.add(0);
+                    insert(keys, next, state, b, child);
+                }
+                state = child;
+            }
+            match.set(state, Math.max(match.get(state), pattern.length));
+        }
+
+        int size = keys.size();
+        byte[][] keysArray = keys.toArray(new byte[size][]);
+        int[][] nextArray = next.toArray(new int[size][]);
+        int[] matchArray = new int[size];
+        for (int i = 0; i < size; i++) {
+            matchArray[i] = match.get(i);
+        }
+
+        // failure links in breadth first order
+        int[] fail = new int[size];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : nextArray[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int i = 0; i < keysArray[state].length; i++) {
+                byte b = keysArray[state][i];
+                int child = nextArray[state][i];
+                int f = fail[state];
+                int target;
+                while ((target = find(keysArray[f], nextArray[f], b)) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = target >= 0 ? target : 0;
+                matchArray[child] = Math.max(matchArray[child], matchArray[fail[child]]);
+                queue.add(child);
+            }
+        }
+        return new SecretMatcher(keysArray, nextArray, fail, matchArray);
+    }
+
+    private static int find(byte[] keys, int[] next, byte b) {
+        int index = Arrays.binarySearch(keys, b);
+        return index >= 0 ? next[index] : -1;
+    }
+
+    private static void insert(List<byte[]> keys, List<int[]> next, int state, byte b, int child) {
+        byte[] oldKeys = keys.get(state);
+        int[] oldNext = next.get(state);
+        int index = -(Arrays.binarySearch(oldKeys, b) + 1);
+
+        byte[] newKeys = new byte[oldKeys.length + 1];
+        int[] newNext = new int[oldNext.length + 1];
+        System.arraycopy(oldKeys, 0, newKeys, 0, index);
+        System.arraycopy(oldNext, 0, newNext, 0, index);
+        newKeys[index] = b;
+        newNext[index] = child;
+        System.arraycopy(oldKeys, index, newKeys, index + 1, oldKeys.length - index);
+        System.arraycopy(oldNext, index, newNext, index + 1, oldNext.length - index);
+        keys.set(state, newKeys);
+        next.set(state, newNext);
+    }
+
+    /**
+     * Returns if there is no secret to mask.
+     *
+     * @return {@code true} if compiled without secrets
+     */
+    public boolean isEmpty() {
+        return keys[0].length == 0;
+    }
+
+    /**
+     * Replaces all secrets in the given bytes with {@code ****}.
+     *
+     * @param text the bytes to mask
+     * @param length the number of bytes to consider
+     * @return the masked bytes, or the same array if no secret was found
+     */
+    @NonNull
+    public byte[] mask(@NonNull byte[] text, int length) {
+        // masked ranges sorted by start, a new match could cover the tail of
+        // previous ranges since it ends later but could start earlier
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        int ranges = 0;
+
+        int state = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = text[i];
+            int target;
+            while ((target = find(keys[state], next[state], b)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = target >= 0 ? target : 0;
+
+            int matched = match[state];
+            if (matched > 0) {
+                int start = i - matched + 1;
+                // merge overlapping or adjacent ranges
+                while (ranges > 0 && ends[ranges - 1] >= start - 1) {
+                    ranges--;
+                    start = Math.min(start, starts[ranges]);
+                }
+                if (ranges == starts.length) {
+                    starts = Arrays.copyOf(starts, ranges * 2);
+                    ends = Arrays.copyOf(ends, ranges * 2);
+                }
+                starts[ranges] = start;
+                ends[ranges] = i;
+                ranges++;
+            }
+        }
+
+        if (ranges == 0) {
+            return text;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + ranges * MASK.length);
+        int copied = 0;
+        for (int r = 0; r < ranges; r++) {
+            out.write(text, copied, starts[r] - copied);
+            out.write(MASK, 0, MASK.length);
+            copied = ends[r] + 1;
+        }
+        out.write(text, copied, length - copied);
+        return out.toByteArray();
+    }
+
+}
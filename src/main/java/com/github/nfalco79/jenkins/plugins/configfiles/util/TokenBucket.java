@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A simple token bucket that limits the rate of some operation.
+ * <p>
+ * Permits are reserved in arrival order, the caller that exceed the
+ * available permits waits until its reserved slot comes.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+final class TokenBucket {
+
+    private final long nanosPerPermit;
+    private final long maxStoredNanos;
+    private long nextFreeSlot;
+
+    /**
+     * Default constructor.
+     *
+     * @param permitsPerSecond the rate of permits, a value less or equals to
+     *        zero means no limit
+     * @param burst the number of permits that can be obtained without wait
+     *        after a period of inactivity
+     */
+    TokenBucket(int permitsPerSecond, int burst) {
+        this.nanosPerPermit = permitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / permitsPerSecond : 0;
+        this.maxStoredNanos = nanosPerPermit * Math.max(0, burst - 1);
+        this.nextFreeSlot = System.nanoTime() - maxStoredNanos;
+    }
+
+    /**
+     * Reserves a permit and returns how long the caller has to wait for it.
+     *
+     * @param now the current time in nanoseconds
+     * @return the wait time in nanoseconds
+     */
+    synchronized long reserve(long now) {
+        if (nanosPerPermit == 0) {
+            return 0;
+        }
+        // stored permits can not exceed the burst size
+        long earliest = now - maxStoredNanos;
+        if (nextFreeSlot < earliest) {
+            nextFreeSlot = earliest;
+        }
+        long wait = Math.max(0, nextFreeSlot - now);
+        nextFreeSlot += nanosPerPermit;
+        return wait;
+    }
+
+    /**
+     * Acquires a permit waiting if necessary.
+     *
+     * @return the time in nanoseconds spent waiting for the permit
+     * @throws InterruptedException if interrupted while waiting
+     */
+    long acquire() throws InterruptedException {
+        long wait = reserve(System.nanoTime());
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return wait;
+    }
+
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import jenkins.util.SystemProperties;
+
+/**
+ * A text with {@code ${NAME}} variables compiled once in a sequence of
+ * literals and variable names.
+ * <p>
+ * Compiled templates are cached by text, since configs are immutable the
+ * text of a config version is compiled once and expanded by every build
+ * with a single pass over the parts. Variables without a value are left as
+ * they are. Values are escaped for the format of the file, so a value can
+ * not add keys or sections to it.
+ *
+ * @author Nikolas Falco
+ * @since 1.0.6
+ */
+public final class VariableTemplate {
+
+    private static final Cache<String, VariableTemplate> TEMPLATES = CacheBuilder.newBuilder() //
+            .maximumSize(SystemProperties.getLong(VariableTemplate.class.getName() + ".cacheSize", 1000L)) //
+            .build();
+    private static final VariableTemplate EMPTY = new VariableTemplate("", new String[0], new boolean[0]);
+
+    private final String text;
+    // literals and variable names in order
+    private final String[] parts;
+    private final boolean[] variables;
+
+    private VariableTemplate(String text, String[] parts, boolean[] variables) {
+        this.text = text;
+        this.parts = parts;
+        this.variables = variables;
+    }
+
+    /**
+     * Returns the compiled form of the given text.
+     *
+     * @param text to compile
+     * @return the compiled template
+     */
+    @NonNull
+    public static VariableTemplate compile(@CheckForNull String text) {
+        if (text == null || !text.contains("${")) {
+            // nothing to expand, no need to cache
+            return text == null ? EMPTY : new VariableTemplate(text, new String[] { text }, new boolean[1]);
+        }
+        try {
+            return TEMPLATES.get(text, () -> parse(text));
+        } catch (ExecutionException e) {
+            // parse never fails
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static VariableTemplate parse(String text) {
+        List<String> parts = new ArrayList<>();
+        List<Boolean> variables = new ArrayList<>();
+        int index = 0;
+        int start;
+        while ((start = text.indexOf("${", index)) != -1) {
+            int end = text.indexOf('}', start + 2);
+            if (end == -1) {
+                break;
+            }
+            if (start > index) {
+                parts.add(text.substring(index, start));
+                variables.add(false);
+            }
+            parts.add(text.substring(start + 2, end));
+            variables.add(true);
+            index = end + 1;
+        }
+        if (index < text.length()) {
+            parts.add(text.substring(index));
+            variables.add(false);
+        }
+
+        boolean[] flags = new boolean[variables.size()];
+        for (int i = 0; i < flags.length; i++) {
+            flags[i] = variables.get(i);
+        }
+        return new VariableTemplate(text, parts.toArray(new String[0]), flags);
+    }
+
+    /**
+     * Returns if this template has variables to expand.
+     *
+     * @return {@code true} if the text contains at least a variable
+     */
+    public boolean hasVariables() {
+        for (boolean variable : variables) {
+            if (variable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the variables with the given values.
+     *
+     * @param values the variables values, typically the build environment
+     * @return the expanded text, the original text if it has no variables
+     */
+    @NonNull
+    public String expand(@NonNull Map<String, String> values) {
+        return expand(values, null);
+    }
+
+    /**
+     * Replaces the variables with the given values escaped for the given
+     * format.
+     *
+     * @param values the variables values, typically the build environment
+     * @param format the format of the text, {@code null} to insert values as
+     *        they are
+     * @return the expanded text, the original text if it has no variables
+     */
+    @NonNull
+    public String expand(@NonNull Map<String, String> values, @CheckForNull Format format) {
+        if (parts.length == 1 && !variables[0]) {
+            return text;
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < parts.length; i++) {
+            if (variables[i]) {
+                String value = values.get(parts[i]);
+                if (value != null) {
+                    sb.append(format != null ? format.escape(sb.substring(sb.lastIndexOf("\n") + 1), value) : value);
+                } else {
+                    sb.append("${").append(parts[i]).append('}');
+                }
+            } else {
+                sb.append(parts[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Expands the variables in the given text.
+     *
+     * @param text to expand
+     * @param values the variables values
+     * @return the expanded text or {@code null} if the text is {@code null}
+     */
+    @CheckForNull
+    public static String expand(@CheckForNull String text, @NonNull Map<String, String> values) {
+        return expand(text, values, null);
+    }
+
+    /**
+     * Expands the variables in the given text escaping their values for the
+     * given format.
+     *
+     * @param text to expand
+     * @param values the variables values
+     * @param format the format of the text
+     * @return the expanded text or {@code null} if the text is {@code null}
+     */
+    @CheckForNull
+    public static String expand(@CheckForNull String text, @NonNull Map<String, String> values, @CheckForNull Format format) {
+        if (text == null || values.isEmpty()) {
+            return text;
+        }
+        return compile(text).expand(values, format);
+    }
+
+    /**
+     * Expands the variables in the URL of the given entries.
+     * <p>
+     * The copy of an entry should carry its credentials only if
+     * {@link #hasFixedHost(String)} is {@code true} for the configured URL,
+     * otherwise a build parameter could send them to any host.
+     *
+     * @param <E> the entry type
+     * @param entries to expand
+     * @param url returns the URL of an entry
+     * @param copy creates a copy of an entry with the given URL
+     * @param values the variables values
+     * @return the expanded entries, the same list if no URL has variables
+     * @throws AbortException if an expanded URL contains white spaces,
+     *         control characters or quotes
+     */
+    @NonNull
+    public static <E> List<E> expand(@NonNull List<E> entries, @NonNull Function<E, String> url, @NonNull BiFunction<E, String, E> copy, @NonNull Map<String, String> values) throws AbortException {
+        if (values.isEmpty()) {
+            return entries;
+        }
+        List<E> expanded = null;
+        for (int i = 0; i < entries.size(); i++) {
+            E entry = entries.get(i);
+            String value = url.apply(entry);
+            if (value == null || !value.contains("${")) {
+                continue;
+            }
+            String expandedURL = compile(value).expand(values);
+            if (!isURL(expandedURL)) {
+                // the expanded value is not logged, it could be a secret
+                throw new AbortException("Invalid URL after expansion of " + value);
+            }
+            if (!expandedURL.equals(value)) {
+                if (expanded == null) {
+                    expanded = new ArrayList<>(entries);
+                }
+                expanded.set(i, copy.apply(entry, expandedURL));
+            }
+        }
+        return expanded != null ? expanded : entries;
+    }
+
+    private static boolean isURL(String url) {
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c <= ' ' || c == '"' || c == '\'' || c == 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns if the host of the given URL is not given by a variable.
+     *
+     * @param url the URL as configured
+     * @return {@code false} if the user info, host or port contain a variable
+     */
+    public static boolean hasFixedHost(@CheckForNull String url) {
+        if (url == null) {
+            return true;
+        }
+        int start = url.indexOf("://");
+        start = start == -1 ? 0 : start + 3;
+        int end = url.indexOf('/', start);
+        String authority = url.substring(start, end == -1 ? url.length() : end);
+        // a variable in the scheme could turn the host into a path
+        return !authority.contains("${") && !url.substring(0, start).contains("${");
+    }
+
+    /**
+     * The format of an expanded text.
+     */
+    public enum Format {
+        /**
+         * Values are escaped as the content of a JSON string.
+         */
+        JSON {
+            @Override
+            String escape(String line, String value) {
+                StringBuilder sb = new StringBuilder(value.length() + 8);
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    if (c == '"' || c == '\\') {
+                        sb.append('\\').append(c);
+                    } else if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+                return sb.toString();
+            }
+        },
+        /**
+         * Line breaks are replaced by a space, so a value can not start a
+         * new key or section.
+         */
+        INI {
+            @Override
+            String escape(String line, String value) {
+                return singleLine(value);
+            }
+        },
+        /**
+         * Values are escaped for the scalar they are in, line breaks never
+         * start a new key.
+         */
+        YAML {
+            @Override
+            String escape(String line, String value) {
+                switch (quoteOf(line)) {
+                case '"':
+                    StringBuilder sb = new StringBuilder(value.length() + 8);
+                    for (int i = 0; i < value.length(); i++) {
+                        char c = value.charAt(i);
+                        if (c == '"' || c == '\\') {
+                            sb.append('\\').append(c);
+                        } else if (c < 0x20) {
+                            sb.append(String.format("\\x%02x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                    }
+                    return sb.toString();
+                case '\'':
+                    return singleLine(value).replace("'", "''");
+                default:
+                    return singleLine(value);
+                }
+            }
+
+            // the quote of the scalar that is open at the end of the line, 0 if none
+            private char quoteOf(String line) {
+                char quote = 0;
+                // last non blank character outside quotes
+                char previous = 0;
+                for (int i = 0; i < line.length(); i++) {
+                    char c = line.charAt(i);
+                    if (quote == 0) {
+                        if (c == '#' && (i == 0 || Character.isWhitespace(line.charAt(i - 1)))) {
+                            // a comment
+                            return 0;
+                        }
+                        if ((c == '"' || c == '\'') && (previous == 0 || ":-?[{,".indexOf(previous) != -1)) {
+                            // quotes start a scalar only at its beginning
+                            quote = c;
+                        } else if (!Character.isWhitespace(c)) {
+                            previous = c;
+                        }
+                    } else if (quote == '"' && c == '\\') {
+                        i++;
+                    } else if (c == quote) {
+                        if (quote == '\'' && i + 1 < line.length() && line.charAt(i + 1) == '\'') {
+                            i++;
+                        } else {
+                            quote = 0;
+                            previous = c;
+                        }
+                    }
+                }
+                return quote;
+            }
+        };
+
+        abstract String escape(String line, String value);
+
+        private static String singleLine(String value) {
+            StringBuilder sb = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                sb.append(c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029' ? ' ' : c);
+            }
+            return sb.toString();
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import hudson.util.XStream2;
+
+public class CompactEntryConverterTest {
+
+    private final XStream2 xstream = new XStream2();
+
+    @Test
+    void test_entry_stored_as_attributes() {
+        String xml = xstream.toXML(new PyPIServer("acme", "https://pypi.acme.com/", "pypiId"));
+
+        assertThat(xml).contains("v=\"1\"", "name=\"acme\"", "url=\"https://pypi.acme.com/\"", "credentialsId=\"pypiId\"") //
+                .doesNotContain("<url>");
+
+        PyPIServer server = (PyPIServer) xstream.fromXML(xml);
+        assertThat(server.getName()).isEqualTo("acme");
+        assertThat(server.getUrl()).isEqualTo("https://pypi.acme.com/");
+        assertThat(server.getCredentialsId()).isEqualTo("pypiId");
+        assertThat(server.getEndpoint().getHost()).isEqualTo("pypi.acme.com");
+    }
+
+    @Test
+    void test_missing_values_are_not_stored() {
+        String xml = xstream.toXML(new GemSource("https://gems.acme.com/", null));
+
+        assertThat(xml).doesNotContain("credentialsId");
+        GemSource source = (GemSource) xstream.fromXML(xml);
+        assertThat(source.getUrl()).isEqualTo("https://gems.acme.com/");
+        assertThat(source.getCredentialsId()).isNull();
+    }
+
+    @Test
+    void test_read_legacy_layout() {
+        String xml = "<com.github.nfalco79.jenkins.plugins.configfiles.DockerRegistry>\n" //
+                + "  <url>https://docker.acme.com/</url>\n" //
+                + "  <credentialsId>dockerId</credentialsId>\n" //
+                + "</com.github.nfalco79.jenkins.plugins.configfiles.DockerRegistry>";
+
+        DockerRegistry registry = (DockerRegistry) xstream.fromXML(xml);
+        assertThat(registry.getUrl()).isEqualTo("https://docker.acme.com/");
+        assertThat(registry.getCredentialsId()).isEqualTo("dockerId");
+        assertThat(registry.getEndpoint().isValid()).isTrue();
+    }
+
+    @Test
+    void test_config_round_trip() {
+        DockerConfig config = new DockerConfig("compactId", "docker", null, "{}", Arrays.asList( //
+                new DockerRegistry("https://docker.acme.com/", "dockerId"), //
+                new DockerRegistry("https://other.acme.com/", null)));
+
+        DockerConfig loaded = (DockerConfig) xstream.fromXML(xstream.toXML(config));
+        assertThat(loaded.getRegistries()).extracting(DockerRegistry::getUrl) //
+                .containsExactly("https://docker.acme.com/", "https://other.acme.com/");
+    }
+
+}
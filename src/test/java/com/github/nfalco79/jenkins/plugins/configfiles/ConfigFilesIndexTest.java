@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.jenkinsci.plugins.configfiles.folder.FolderConfigFileProperty;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import com.cloudbees.hudson.plugins.folder.Folder;
+
+import hudson.cli.CLICommandInvoker;
+
+@WithJenkins
+public class ConfigFilesIndexTest {
+
+    private static JenkinsRule r;
+
+    @BeforeAll
+    static void init(JenkinsRule rule) {
+        r = rule;
+    }
+
+    @Test
+    void test_index_follows_saves() throws Exception {
+        ConfigFilesIndex index = ConfigFilesIndex.get();
+
+        GlobalConfigFiles.get().save(new DockerConfig("indexDockerId", "docker", null, "{}", //
+                Arrays.asList(new DockerRegistry("https://Registry.acme.com/v2", "dockerCred"), new DockerRegistry("hub.acme.com:5000", null))));
+        assertThat(index.findByHost("registry.acme.com")).extracting(ConfigFilesIndex.Ref::getId).containsExactly("indexDockerId");
+        assertThat(index.findByHost("hub.acme.com")).extracting(ConfigFilesIndex.Ref::getId).containsExactly("indexDockerId");
+        assertThat(index.findByCredentialsId("dockerCred")).extracting(ConfigFilesIndex.Ref::getId).containsExactly("indexDockerId");
+
+        GlobalConfigFiles.get().save(new DockerConfig("indexDockerId", "docker", null, "{}", //
+                Arrays.asList(new DockerRegistry("https://other.acme.com", "dockerCred"))));
+        assertThat(index.findByHost("registry.acme.com")).isEmpty();
+        assertThat(index.find("other.acme.com", "dockerCred")).extracting(ConfigFilesIndex.Ref::getId).containsExactly("indexDockerId");
+
+        GlobalConfigFiles.get().remove("indexDockerId");
+        assertThat(index.findByCredentialsId("dockerCred")).isEmpty();
+    }
+
+    @Test
+    void test_nested_folders_follow_moves() throws Exception {
+        ConfigFilesIndex index = ConfigFilesIndex.get();
+
+        Folder parent = r.jenkins.createProject(Folder.class, "parent");
+        Folder child = parent.createProject(Folder.class, "child");
+        FolderConfigFileProperty property = new FolderConfigFileProperty(child);
+        child.getProperties().add(property);
+        property.save(new DockerConfig("nestedDockerId", "docker", null, "{}", //
+                Arrays.asList(new DockerRegistry("https://nested.acme.com", "nestedCred"))));
+        assertThat(index.findByHost("nested.acme.com")).extracting(ConfigFilesIndex.Ref::getFolder).containsExactly("parent/child");
+
+        parent.renameTo("renamed");
+        assertThat(index.findByHost("nested.acme.com")).extracting(ConfigFilesIndex.Ref::getFolder).containsExactly("renamed/child");
+
+        parent.delete();
+        assertThat(index.findByCredentialsId("nestedCred")).isEmpty();
+    }
+
+    @Test
+    void test_cli() throws Exception {
+        GlobalConfigFiles.get().save(new GemConfig("indexGemId", "gem", null, "", //
+                Arrays.asList(new GemSource("https://gems.acme.com", "gemCred"))));
+
+        CLICommandInvoker.Result result = new CLICommandInvoker(r, new FindExtConfigFilesCommand()).invokeWithArgs("--credentials", "gemCred");
+        assertThat(result.returnCode()).isZero();
+        assertThat(result.stdout()).contains("indexGemId");
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import com.github.nfalco79.jenkins.plugins.configfiles.ConfigLayers.Layer;
+
+import hudson.AbortException;
+import hudson.ExtensionList;
+import hudson.model.FreeStyleBuild;
+
+@WithJenkins
+public class ConfigLayersTest {
+
+    private static JenkinsRule r;
+
+    @BeforeAll
+    static void init(JenkinsRule rule) {
+        r = rule;
+    }
+
+    @Test
+    void test_child_inherits_parent_layer() throws Exception {
+        PyPIServer shared = new PyPIServer("shared", "https://pypi.acme.com/shared", null);
+        PyPIServer team = new PyPIServer("team", "https://pypi.acme.com/team", null);
+        GlobalConfigFiles.get().save(new PyPIConfig("basePyPI", "base", null, "[global]\ntimeout = 60", Arrays.asList(shared)));
+
+        PyPIConfig child = new PyPIConfig("teamPyPI", "team", null, "", Arrays.asList(team));
+        child.setParentId("basePyPI");
+        GlobalConfigFiles.get().save(child);
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(r.createFreeStyleProject());
+        Layer<PyPIServer> layer = ConfigLayers.resolve(build, child, PyPIConfig.class, null, PyPIConfig::getServers, PyPIServer::getName);
+        assertThat(layer.getContent()).contains("timeout = 60");
+        assertThat(layer.getEntries()).containsExactly(shared, team);
+
+        // a changed parent is not memoized anymore
+        PyPIServer changed = new PyPIServer("shared", "https://pypi.acme.com/changed", null);
+        GlobalConfigFiles.get().save(new PyPIConfig("basePyPI", "base", null, "[global]\ntimeout = 30", Arrays.asList(changed)));
+
+        layer = ConfigLayers.resolve(build, child, PyPIConfig.class, null, PyPIConfig::getServers, PyPIServer::getName);
+        assertThat(layer.getContent()).contains("timeout = 30");
+        assertThat(layer.getEntries()).containsExactly(changed, team);
+    }
+
+    @Test
+    void test_child_with_template_content_inherits_parent_content() throws Exception {
+        GlobalConfigFiles.get().save(new DockerConfig("baseDocker", "base", null, "{\"credsStore\": \"none\"}", null));
+
+        DockerConfig.DockerConfigProvider provider = ExtensionList.lookupSingleton(DockerConfig.DockerConfigProvider.class);
+        DockerConfig template = (DockerConfig) provider.newConfig("teamDocker");
+        DockerConfig child = new DockerConfig("teamDocker", "team", null, template.content.replace("\n", "\r\n"), null);
+        child.setParentId("baseDocker");
+        GlobalConfigFiles.get().save(child);
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(r.createFreeStyleProject());
+        Layer<DockerRegistry> layer = ConfigLayers.resolve(build, child, DockerConfig.class, template.content, DockerConfig::getRegistries, DockerRegistry::getUrl);
+        assertThat(layer.getContent()).contains("credsStore");
+    }
+
+    @Test
+    void test_child_inherits_api_key() throws Exception {
+        GemConfig base = new GemConfig("baseGem", "base", null, "---\n:verbose: true", Collections.emptyList());
+        base.setApiKey("baseApiKey");
+        GemConfig middle = new GemConfig("middleGem", "middle", null, "", Collections.emptyList());
+        middle.setParentId("baseGem");
+        GemConfig child = new GemConfig("childGem", "child", null, "", Collections.emptyList());
+        child.setParentId("middleGem");
+        GlobalConfigFiles.get().save(base);
+        GlobalConfigFiles.get().save(middle);
+        GlobalConfigFiles.get().save(child);
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(r.createFreeStyleProject());
+        Layer<GemSource> layer = ConfigLayers.resolve(build, child, GemConfig.class, null, GemConfig::getSources, GemSource::getUrl);
+        assertThat(layer.inherit(child, GemConfig::getApiKey)).isEqualTo("baseApiKey");
+
+        // the nearest config that sets the API key wins
+        middle.setApiKey("middleApiKey");
+        assertThat(layer.inherit(child, GemConfig::getApiKey)).isEqualTo("middleApiKey");
+        child.setApiKey("childApiKey");
+        assertThat(layer.inherit(child, GemConfig::getApiKey)).isEqualTo("childApiKey");
+    }
+
+    @Test
+    void test_cycle() throws Exception {
+        GemConfig first = new GemConfig("firstGem", "first", null, "", Collections.emptyList());
+        first.setParentId("secondGem");
+        GemConfig second = new GemConfig("secondGem", "second", null, "", Collections.emptyList());
+        second.setParentId("firstGem");
+        GlobalConfigFiles.get().save(first);
+        GlobalConfigFiles.get().save(second);
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(r.createFreeStyleProject());
+        assertThatThrownBy(() -> ConfigLayers.resolve(build, first, GemConfig.class, null, GemConfig::getSources, GemSource::getUrl)) //
+                .isInstanceOf(AbortException.class);
+    }
+
+}
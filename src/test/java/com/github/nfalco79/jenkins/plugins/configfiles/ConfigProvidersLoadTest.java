@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+
+import hudson.BulkChange;
+import hudson.model.queue.QueueTaskFuture;
+
+/**
+ * Load harness that renders config files from many concurrent pipeline runs.
+ * <p>
+ * It runs only with the {@code load} profile, sizes are tuned with the
+ * system properties {@code load.configs}, {@code load.registries},
+ * {@code load.credentials} and {@code load.runs}, for example:
+ *
+ * <pre>
+ * mvn test -P load -Dload.configs=3000 -Dload.runs=300 -Djenkins.test.timeout=0
+ * </pre>
+ *
+ * The report with throughput, p50/p99 latency of the config file step and
+ * heap growth of the controller is printed on the standard output.
+ *
+ * @author Nikolas Falco
+ */
+@Tag("load")
+@WithJenkins
+public class ConfigProvidersLoadTest {
+
+    private static final Pattern LATENCY = Pattern.compile("LATENCY=(\\d+)");
+
+    private static JenkinsRule r;
+
+    @BeforeAll
+    static void init(JenkinsRule rule) {
+        r = rule;
+    }
+
+    @Test
+    void render_configs_from_concurrent_runs() throws Exception {
+        int configs = Integer.getInteger("load.configs", 3000) / 3;
+        int registries = Integer.getInteger("load.registries", 10);
+        int credentials = Integer.getInteger("load.credentials", 20);
+        int runs = Integer.getInteger("load.runs", 200);
+
+        for (int i = 0; i < credentials; i++) {
+            SystemCredentialsProvider.getInstance().getCredentials().add(new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "cred" + i, "", "user" + i, "password" + i));
+        }
+
+        GlobalConfigFiles store = GlobalConfigFiles.get();
+        try (BulkChange bc = new BulkChange(store)) {
+            for (int i = 0; i < configs; i++) {
+                List<DockerRegistry> dockerRegistries = new ArrayList<>(registries);
+                List<PyPIServer> pypiServers = new ArrayList<>(registries);
+                List<GemSource> gemSources = new ArrayList<>(registries);
+                for (int j = 0; j < registries; j++) {
+                    String credentialsId = "cred" + ((i + j) % credentials);
+                    String url = "https://registry" + j + ".acme.com/repo" + i + "/";
+                    dockerRegistries.add(new DockerRegistry(url, credentialsId));
+                    pypiServers.add(new PyPIServer("server" + j, url, credentialsId));
+                    gemSources.add(new GemSource(url, credentialsId));
+                }
+                store.save(new DockerConfig("docker" + i, "docker" + i, null, "{}", dockerRegistries));
+                store.save(new PyPIConfig("pypi" + i, "pypi" + i, null, "", pypiServers));
+                store.save(new GemConfig("gem" + i, "gem" + i, null, "---\n:verbose: true", gemSources));
+            }
+            bc.commit();
+        }
+
+        r.jenkins.setNumExecutors(Math.min(runs, 100));
+
+        List<WorkflowJob> jobs = new ArrayList<>(runs);
+        for (int i = 0; i < runs; i++) {
+            int config = i % configs;
+            WorkflowJob job = r.createProject(WorkflowJob.class, "load" + i);
+            job.setDefinition(new CpsFlowDefinition("node {\n" //
+                    + "  long start = System.nanoTime()\n" //
+                    + "  extConfigFileProvider([configFile(fileId: 'docker" + config + "', variable: 'DOCKER_CFG'),\n" //
+                    + "                         configFile(fileId: 'pypi" + config + "', variable: 'PYPI_CFG'),\n" //
+                    + "                         configFile(fileId: 'gem" + config + "', variable: 'GEM_CFG')]) {\n" //
+                    + "    echo \"LATENCY=${System.nanoTime() - start}\"\n" //
+                    + "  }\n" //
+                    + "}", false));
+            jobs.add(job);
+        }
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+        long start = System.nanoTime();
+        List<QueueTaskFuture<WorkflowRun>> futures = new ArrayList<>(runs);
+        for (WorkflowJob job : jobs) {
+            futures.add(job.scheduleBuild2(0));
+        }
+        List<Long> latencies = new ArrayList<>(runs);
+        for (QueueTaskFuture<WorkflowRun> future : futures) {
+            WorkflowRun run = r.assertBuildStatusSuccess(future);
+            Matcher matcher = LATENCY.matcher(run.getLog());
+            if (matcher.find()) {
+                latencies.add(Long.parseLong(matcher.group(1)));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.gc();
+        long heapAfter = memory.getHeapMemoryUsage().getUsed();
+
+        Collections.sort(latencies);
+        System.out.println(String.format(Locale.ENGLISH, "configs: %d, registries per config: %d, runs: %d", configs * 3, registries, runs));
+        System.out.println(String.format(Locale.ENGLISH, "throughput: %.2f runs/s", runs / (elapsed / (double) TimeUnit.SECONDS.toNanos(1))));
+        System.out.println(String.format(Locale.ENGLISH, "step latency p50: %d ms, p99: %d ms", toMillis(percentile(latencies, 50)), toMillis(percentile(latencies, 99))));
+        System.out.println(String.format(Locale.ENGLISH, "heap growth: %d KB", (heapAfter - heapBefore) / 1024));
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100d * sorted.size()) - 1;
+        return sorted.get(Math.max(index, 0));
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+}
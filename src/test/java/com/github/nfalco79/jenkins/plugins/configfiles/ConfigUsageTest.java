@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.jenkinsci.plugins.configfiles.buildwrapper.ManagedFile;
+import org.jenkinsci.plugins.configfiles.folder.FolderConfigFileProperty;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import com.cloudbees.hudson.plugins.folder.Folder;
+import com.github.nfalco79.jenkins.plugins.configfiles.ConfigFilesIndex.Ref;
+
+import hudson.model.FreeStyleProject;
+
+@WithJenkins
+public class ConfigUsageTest {
+
+    private static JenkinsRule r;
+
+    @BeforeAll
+    static void init(JenkinsRule rule) {
+        r = rule;
+    }
+
+    @Test
+    void test_render_is_recorded() throws Exception {
+        GlobalConfigFiles.get().save(new GemConfig("usedGemId", "gem", null, "---\n:verbose: true", null));
+        GlobalConfigFiles.get().save(new GemConfig("coldGemId", "gem", null, "---\n:verbose: true", null));
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(new ManagedFile("usedGemId"))));
+        r.buildAndAssertSuccess(project);
+        r.buildAndAssertSuccess(project);
+
+        ConfigUsage usage = ConfigUsage.get();
+        Ref used = new Ref(null, "usedGemId");
+        assertThat(usage.getCount(used)).isEqualTo(2);
+        assertThat(usage.getLastUsed(used)).isPositive();
+        assertThat(usage.getCount(new Ref(null, "coldGemId"))).isZero();
+        // never used but just seen for the first time
+        assertThat(usage.getColdConfigs(1)).extracting(Ref::getId).doesNotContain("coldGemId", "usedGemId");
+    }
+
+    @Test
+    void test_parent_usage_is_recorded() throws Exception {
+        GlobalConfigFiles.get().save(new GemConfig("parentGemId", "parent", null, "---\n:verbose: true", null));
+        GemConfig child = new GemConfig("childGemId", "child", null, "", null);
+        child.setParentId("parentGemId");
+        GlobalConfigFiles.get().save(child);
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(new ManagedFile("childGemId"))));
+        r.buildAndAssertSuccess(project);
+
+        assertThat(ConfigUsage.get().getCount(new Ref(null, "parentGemId"))).isEqualTo(1);
+    }
+
+    @Test
+    void test_usage_is_kept_per_store() throws Exception {
+        GlobalConfigFiles.get().save(new GemConfig("sameGemId", "global", null, "---\n:verbose: true", null));
+        Folder folder = r.jenkins.createProject(Folder.class, "team");
+        FolderConfigFileProperty property = new FolderConfigFileProperty(folder);
+        folder.getProperties().add(property);
+        property.save(new GemConfig("sameGemId", "team", null, "---\n:verbose: false", null));
+
+        FreeStyleProject project = folder.createProject(FreeStyleProject.class, "job");
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(new ManagedFile("sameGemId"))));
+        r.buildAndAssertSuccess(project);
+
+        assertThat(ConfigUsage.get().getCount(new Ref("team", "sameGemId"))).isEqualTo(1);
+        assertThat(ConfigUsage.get().getCount(new Ref(null, "sameGemId"))).isZero();
+    }
+
+    @Test
+    void test_archive_and_restore() throws Exception {
+        GlobalConfigFiles.get().save(new DockerConfig("archivedDockerId", "docker", null, "{}", //
+                Arrays.asList(new DockerRegistry("https://docker.acme.com/", null))));
+
+        ConfigUsage usage = ConfigUsage.get();
+        usage.archive(null, "archivedDockerId");
+        assertThat(GlobalConfigFiles.get().getById("archivedDockerId")).isNull();
+        assertThat(usage.getArchivedConfigs()).extracting(Ref::getId).containsExactly("archivedDockerId");
+
+        usage.restore(null, "archivedDockerId");
+        assertThat(GlobalConfigFiles.get().getById("archivedDockerId")).isInstanceOfSatisfying(DockerConfig.class, //
+                config -> assertThat(config.getRegistries()).extracting(DockerRegistry::getUrl).containsExactly("https://docker.acme.com/"));
+        assertThat(usage.getArchivedConfigs()).isEmpty();
+    }
+
+}
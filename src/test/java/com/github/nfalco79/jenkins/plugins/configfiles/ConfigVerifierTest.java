@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.htmlunit.HttpMethod;
+import org.htmlunit.WebRequest;
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import com.github.nfalco79.jenkins.plugins.configfiles.ConfigFilesIndex.Ref;
+
+import hudson.ExtensionList;
+
+@WithJenkins
+public class ConfigVerifierTest {
+
+    private static JenkinsRule r;
+
+    @BeforeAll
+    static void init(JenkinsRule rule) {
+        r = rule;
+    }
+
+    @Test
+    void test_verify_all() throws Exception {
+        GlobalConfigFiles.get().save(new DockerConfig("validDockerId", "docker", null, "{}", //
+                Arrays.asList(new DockerRegistry("https://docker.acme.com/", null))));
+        GlobalConfigFiles.get().save(new DockerConfig("badContentId", "docker", null, "{ not json", null));
+        GlobalConfigFiles.get().save(new GemConfig("badUrlId", "gem", null, null, //
+                Arrays.asList(new GemSource("gems.acme.com", null))));
+
+        Map<String, String> results = new ConcurrentHashMap<>();
+        int total = ExtensionList.lookupSingleton(ConfigVerifier.class).verifyAll(result -> {
+            Ref ref = result.getKey();
+            results.put(ref.getId(), result.getValue() != null ? result.getValue() : "OK");
+        });
+
+        assertThat(total).isGreaterThanOrEqualTo(3);
+        assertThat(results).hasSize(total) //
+                .containsEntry("validDockerId", "OK") //
+                .containsKeys("badContentId", "badUrlId");
+        assertThat(results.get("badContentId")).isNotEqualTo("OK");
+        assertThat(results.get("badUrlId")).isNotEqualTo("OK");
+    }
+
+    @Test
+    void test_run_streams_results() throws Exception {
+        GlobalConfigFiles.get().save(new PyPIConfig("streamPyPIId", "pypi", null, null, null));
+
+        try (JenkinsRule.WebClient wc = r.createWebClient()) {
+            WebRequest request = new WebRequest(wc.createCrumbedUrl("ext-config-files-verify/run"), HttpMethod.POST);
+            String output = wc.getPage(request).getWebResponse().getContentAsString();
+            assertThat(output).contains("OK   streamPyPIId", "config files verified");
+        }
+    }
+
+}
@@ -18,13 +18,16 @@ package com.github.nfalco79.jenkins.plugins.configfiles;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Map;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
 import com.cloudbees.plugins.credentials.CredentialsProvider;
@@ -33,8 +36,11 @@ import com.cloudbees.plugins.credentials.CredentialsStore;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.Domain;
 import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.ExpiringCredentialsCache;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.ExpiringCredentialsSource;
 
 import hudson.model.FreeStyleBuild;
+import hudson.util.Secret;
 
 @WithJenkins
 public class DockerConfigHelperTest {
@@ -68,4 +74,36 @@ public class DockerConfigHelperTest {
         assertThat(resolvedCredentials).containsKey(privateRegistry.getUrl()).containsValue(user);
     }
 
-}
\ No newline at end of file
+    @Test
+    void test_expiring_token() throws Exception {
+        DockerRegistry privateRegistry = new DockerRegistry("https://private.organization.com/", user.getId());
+
+        FreeStyleBuild build = j.createFreeStyleProject().createExecutable();
+
+        ExpiringCredentialsCache.get().clear();
+        DockerConfigHelper helper = new DockerConfigHelper(Arrays.asList(privateRegistry));
+        Map<String, StandardUsernamePasswordCredentials> resolvedCredentials = helper.resolveCredentials(build);
+        String content = helper.fillRegistries("{}", resolvedCredentials);
+        content = helper.fillRegistries(content, resolvedCredentials);
+
+        String auth = Base64.getEncoder().encodeToString("token:secret1".getBytes(StandardCharsets.UTF_8));
+        assertThat(content).contains(auth);
+    }
+
+    @TestExtension("test_expiring_token")
+    public static class StubTokenSource extends ExpiringCredentialsSource {
+        private int counter;
+
+        @Override
+        public boolean isApplicable(StandardUsernamePasswordCredentials credentials) {
+            return "privateId".equals(credentials.getId());
+        }
+
+        @Override
+        public Token mint(StandardUsernamePasswordCredentials credentials) {
+            // second call would produce secret2 but the token does not expire
+            return new Token("token", Secret.fromString("secret" + (++counter)), System.currentTimeMillis() + 3600000);
+        }
+    }
+
+}
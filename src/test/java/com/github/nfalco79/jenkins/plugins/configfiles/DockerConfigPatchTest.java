@@ -0,0 +1,120 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIOException;
+
+import org.junit.jupiter.api.Test;
+
+import net.sf.json.JSONObject;
+
+public class DockerConfigPatchTest {
+
+    private final DockerConfigPatch patch = DockerConfigPatch.of("{\"auths\": {\"https://docker.acme.com/\": {\"auth\": \"dXNlcjpwd2Q=\"}}}");
+
+    @Test
+    void test_other_settings_are_preserved() throws Exception {
+        String content = "{\n" //
+                + "\t\"credsStore\": \"desktop\",\n" //
+                + "\t\"proxies\": {\"default\": {\"httpProxy\": \"http://proxy:3128\"}}\n" //
+                + "}\n";
+
+        String merged = patch.apply(content);
+
+        assertThat(merged).startsWith("{\n\t\"credsStore\": \"desktop\",\n\t\"proxies\": {\"default\": {\"httpProxy\": \"http://proxy:3128\"}},\n\t\"auths\": {");
+        JSONObject json = JSONObject.fromObject(merged);
+        assertThat(json.getJSONObject("auths").getJSONObject("https://docker.acme.com/").getString("auth")).isEqualTo("dXNlcjpwd2Q=");
+    }
+
+    @Test
+    void test_existing_registry_is_updated() throws Exception {
+        String content = "{\"auths\": {\"https://docker.acme.com/\": {\"auth\": \"old\", \"email\": \"me@acme.com\"}, \"other.io\": {}}}";
+
+        JSONObject json = JSONObject.fromObject(patch.apply(content));
+
+        JSONObject auth = json.getJSONObject("auths").getJSONObject("https://docker.acme.com/");
+        assertThat(auth.getString("auth")).isEqualTo("dXNlcjpwd2Q=");
+        assertThat(auth.getString("email")).isEqualTo("me@acme.com");
+        assertThat(json.getJSONObject("auths").has("other.io")).isTrue();
+    }
+
+    @Test
+    void test_missing_config() throws Exception {
+        JSONObject json = JSONObject.fromObject(patch.apply(null));
+
+        assertThat(json.getJSONObject("auths").getJSONObject("https://docker.acme.com/").getString("auth")).isEqualTo("dXNlcjpwd2Q=");
+    }
+
+    @Test
+    void test_json_types_are_preserved() throws Exception {
+        DockerConfigPatch typed = DockerConfigPatch.of("{\"auths\": {\"docker.acme.com\": {\"auth\": \"dXNlcjpwd2Q=\"}}," //
+                + " \"experimental\": true, \"timeout\": 30, \"plugins\": [\"buildx\", \"compose\"]}");
+
+        String merged = typed.apply("{\"credsStore\": \"desktop\", \"experimental\": false}");
+
+        assertThat(merged).contains("\"experimental\": true").contains("\"timeout\": 30").contains("[\"buildx\",\"compose\"]");
+        JSONObject json = JSONObject.fromObject(merged);
+        assertThat(json.get("experimental")).isEqualTo(Boolean.TRUE);
+        assertThat(json.get("timeout")).isEqualTo(30);
+        assertThat(json.getJSONArray("plugins")).containsExactly("buildx", "compose");
+        assertThat(json.getString("credsStore")).isEqualTo("desktop");
+    }
+
+    @Test
+    void test_nested_objects_and_escapes_are_copied() throws Exception {
+        String content = "{\n" //
+                + "  \"proxies\": {\"default\": {\"noProxy\": [\"*.acme.com\", {\"a\": [1, 2.5e3, null]}], \"enabled\": true}},\n" //
+                + "  \"detachKeys\": \"a\\\"b\\\\c\\u00e8\\n\",\n" //
+                + "  \"auths\": {\"other.io\": {\"auth\": \"b3RoZXI=\"}, \"https://docker.acme.com/\": {\"auth\": \"old\"}}\n" //
+                + "}";
+
+        String merged = patch.apply(content);
+
+        // the existing text is copied as it is, only the patched value changes
+        assertThat(merged).isEqualTo(content.replace("\"old\"", "\"dXNlcjpwd2Q=\""));
+        JSONObject json = JSONObject.fromObject(merged);
+        assertThat(json.getString("detachKeys")).isEqualTo("a\"b\\c\u00e8\n");
+        assertThat(json.getJSONObject("auths").getJSONObject("other.io").getString("auth")).isEqualTo("b3RoZXI=");
+    }
+
+    @Test
+    void test_escaped_keys_are_matched() throws Exception {
+        DockerConfigPatch escaped = DockerConfigPatch.of("{\"auths\": {\"a\\\"b\": {\"auth\": \"new\"}}}");
+
+        JSONObject json = JSONObject.fromObject(escaped.apply("{\"auths\": {\"a\\u0022b\": {\"auth\": \"old\"}}}"));
+
+        assertThat(json.getJSONObject("auths").getJSONObject("a\"b").getString("auth")).isEqualTo("new");
+        assertThat(json.getJSONObject("auths").size()).isEqualTo(1);
+    }
+
+    @Test
+    void test_malformed_config_is_rejected() {
+        assertThatIOException().isThrownBy(() -> patch.apply("{\"auths\": {\"https://docker.acme.com/\": {\"auth\": \"x\"}"));
+        assertThatIOException().isThrownBy(() -> patch.apply("{\"credsStore\": \"desktop\" \"auths\": {}}"));
+        assertThatIOException().isThrownBy(() -> patch.apply("{\"detachKeys\": \"unterminated}"));
+        assertThatIOException().isThrownBy(() -> patch.apply("{\"detachKeys\": \"\\u12\"}"));
+        assertThatIOException().isThrownBy(() -> patch.apply("{\"auths\": {}} trailing"));
+    }
+
+    @Test
+    void test_invalid_config_is_not_overwritten() {
+        assertThatIOException().isThrownBy(() -> patch.apply("[\"auths\"]"));
+        assertThatIOException().isThrownBy(() -> patch.apply("{\"auths\": }"));
+    }
+
+}
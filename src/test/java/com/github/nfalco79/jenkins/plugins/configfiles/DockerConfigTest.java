@@ -17,6 +17,10 @@
 package com.github.nfalco79.jenkins.plugins.configfiles;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import org.jenkinsci.lib.configprovider.model.Config;
 import org.junit.jupiter.api.BeforeAll;
@@ -49,6 +53,18 @@ public class DockerConfigTest {
         assertThat(config).isNotNull() //
                 .describedAs("Unexpected config class").isInstanceOf(DockerConfig.class);
         assertThat(config.content).describedAs("Expected the default template, instead got empty").isNotBlank();
+        assertThat(provider.newConfig("otherId").content).describedAs("Expected the template read once").isSameAs(config.content);
+    }
+
+    @Test
+    void test_registries_snapshot() {
+        List<DockerRegistry> registries = new ArrayList<>();
+        registries.add(new DockerRegistry("https://docker.acme.com/", null));
+        DockerConfig config = new DockerConfig("snapshotId", null, null, "{}", registries);
+
+        registries.add(new DockerRegistry("https://other.acme.com/", null));
+        assertThat(config.getRegistries()).hasSize(1).isSameAs(config.getRegistries());
+        assertThatThrownBy(() -> config.getRegistries().clear()).isInstanceOf(UnsupportedOperationException.class);
     }
 
-}
\ No newline at end of file
+}
@@ -101,6 +101,18 @@ public class DockerRegistryValidatorTest {
         assertThat(result.kind).isEqualTo(Kind.OK);
     }
 
+    @Test
+    void test_server_url_without_protocol_is_not_a_host() throws Exception {
+        DescriptorImpl descriptor = new DescriptorImpl();
+
+        FormValidation result = descriptor.doCheckUrl("foo bar");
+        assertThat(result.kind).isEqualTo(Kind.ERROR);
+        assertThat(result.getMessage()).isEqualTo(Messages.invalidServerURL());
+
+        result = descriptor.doCheckUrl("docker.acme.com:5000/repo");
+        assertThat(result.kind).isEqualTo(Kind.OK);
+    }
+
     @Test
     void test_invalid_credentials() throws Exception {
         FreeStyleProject prj = r.createFreeStyleProject();
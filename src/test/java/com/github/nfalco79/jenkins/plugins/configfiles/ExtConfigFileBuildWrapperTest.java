@@ -0,0 +1,304 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.jenkinsci.plugins.configfiles.buildwrapper.ManagedFile;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+
+import hudson.Functions;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.Result;
+import hudson.model.StringParameterDefinition;
+import hudson.tasks.Shell;
+
+@WithJenkins
+public class ExtConfigFileBuildWrapperTest {
+
+    private static JenkinsRule r;
+
+    @BeforeAll
+    static void init(JenkinsRule rule) {
+        r = rule;
+    }
+
+    @Test
+    void test_in_memory_config() throws Exception {
+        assumeTrue(!Functions.isWindows() && new File("/dev/shm").canWrite());
+
+        DockerConfig config = new DockerConfig("dockerId", "docker", null, "{}", null);
+        config.setInMemory(true);
+        GlobalConfigFiles.get().save(config);
+
+        ManagedFile managedFile = new ManagedFile(config.id);
+        managedFile.setVariable("DOCKER_CFG");
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(managedFile)));
+        project.getBuildersList().add(new Shell("echo \"config at $DOCKER_CFG\"\ntest -f \"$DOCKER_CFG\""));
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project);
+        r.assertLogContains("config at /dev/shm/ext-configfiles/", build);
+        assertThat(new File("/dev/shm/ext-configfiles").list()).isEmpty();
+    }
+
+    @Test
+    void test_fallback_to_workspace() throws Exception {
+        assumeTrue(!Functions.isWindows());
+
+        DockerConfig config = new DockerConfig("diskDockerId", "docker", null, "{}", null);
+        GlobalConfigFiles.get().save(config);
+
+        ManagedFile managedFile = new ManagedFile(config.id);
+        managedFile.setVariable("DOCKER_CFG");
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(managedFile)));
+        project.getBuildersList().add(new Shell("cat \"$DOCKER_CFG\""));
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project);
+        r.assertLogContains("{}", build);
+    }
+
+    @Test
+    void test_bundle() throws Exception {
+        assumeTrue(!Functions.isWindows());
+
+        DockerConfig docker = new DockerConfig("bundleDockerId", "docker", null, "{}", null);
+        GlobalConfigFiles.get().save(docker);
+        GemConfig gem = new GemConfig("bundleGemId", "gem", null, "---\n:verbose: true", null);
+        GlobalConfigFiles.get().save(gem);
+
+        ManagedFile dockerFile = new ManagedFile(docker.id);
+        dockerFile.setVariable("DOCKER_CFG");
+        ManagedFile gemFile = new ManagedFile(gem.id);
+        gemFile.setTargetLocation("gem/.gemrc");
+        gemFile.setVariable("GEM_CFG");
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(dockerFile, gemFile)));
+        project.getBuildersList().add(new Shell("cat \"$DOCKER_CFG\" \"$GEM_CFG\""));
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project);
+        r.assertLogContains(":verbose: true", build);
+        assertThat(build.getWorkspace().child("gem/.gemrc").exists()).isTrue();
+    }
+
+    @Test
+    void test_skip_unchanged_file() throws Exception {
+        GemConfig gem = new GemConfig("unchangedGemId", "gem", null, "---\n:verbose: true", null);
+        GlobalConfigFiles.get().save(gem);
+
+        ManagedFile gemFile = new ManagedFile(gem.id);
+        gemFile.setTargetLocation(".gemrc");
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(gemFile)));
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project);
+        r.assertLogNotContains("already up to date", build);
+
+        build = r.buildAndAssertSuccess(project);
+        r.assertLogContains("1 config files are already up to date", build);
+        assertThat(build.getWorkspace().child(".gemrc").readToString()).contains(":verbose: true");
+    }
+
+    @Test
+    void test_injected_secrets_are_masked() throws Exception {
+        assumeTrue(!Functions.isWindows());
+
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next() //
+                .addCredentials(Domain.global(), new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "maskedId", null, "myuser", "s3cr3t pwd"));
+        DockerConfig config = new DockerConfig("maskedDockerId", "docker", null, "{}", Arrays.asList(new DockerRegistry("https://docker.acme.com/", "maskedId")));
+        GlobalConfigFiles.get().save(config);
+
+        ManagedFile managedFile = new ManagedFile(config.id);
+        managedFile.setVariable("DOCKER_CFG");
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(managedFile)));
+        project.getBuildersList().add(new Shell("cat \"$DOCKER_CFG\"\necho 'password is s3cr3t pwd'\necho 'encoded is s3cr3t+pwd'"));
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project);
+        r.assertLogNotContains(Base64.getEncoder().encodeToString("myuser:s3cr3t pwd".getBytes(StandardCharsets.UTF_8)), build);
+        r.assertLogNotContains("s3cr3t", build);
+        r.assertLogContains("password is ****", build);
+        r.assertLogContains("encoded is ****", build);
+    }
+
+    @Test
+    void test_content_as_environment_variable() throws Exception {
+        assumeTrue(!Functions.isWindows());
+
+        DockerConfig config = new DockerConfig("envDockerId", "docker", null, "{\"credsStore\": \"none\"}", null);
+        config.setInEnvironment(true);
+        GlobalConfigFiles.get().save(config);
+
+        ManagedFile managedFile = new ManagedFile(config.id);
+        managedFile.setTargetLocation("docker.json");
+        managedFile.setVariable("DOCKER_AUTH_CONFIG");
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(managedFile)));
+        project.getBuildersList().add(new Shell("echo \"$DOCKER_AUTH_CONFIG\""));
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project);
+        r.assertLogContains("credsStore", build);
+        assertThat(build.getWorkspace().child("docker.json").exists()).isFalse();
+        assertThat(build.getSensitiveBuildVariables()).contains("DOCKER_AUTH_CONFIG");
+    }
+
+    @Test
+    void test_environment_requires_variable() throws Exception {
+        DockerConfig config = new DockerConfig("envRequiredDockerId", "docker", null, "{\"credsStore\": \"none\"}", null);
+        config.setInEnvironment(true);
+        GlobalConfigFiles.get().save(config);
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(new ManagedFile(config.id))));
+
+        FreeStyleBuild build = r.buildAndAssertStatus(Result.FAILURE, project);
+        r.assertLogContains("no variable is set", build);
+    }
+
+    @Test
+    void test_expand_build_parameters() throws Exception {
+        assumeTrue(!Functions.isWindows());
+
+        DockerConfig config = new DockerConfig("paramDockerId", "docker", null, "{\"detachKeys\": \"${DETACH_KEYS}\"}", //
+                Arrays.asList(new DockerRegistry("https://${REGISTRY_HOST}/", null)));
+        config.setExpandVariables(true);
+        GlobalConfigFiles.get().save(config);
+
+        ManagedFile managedFile = new ManagedFile(config.id);
+        managedFile.setVariable("DOCKER_CFG");
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("REGISTRY_HOST", "docker.acme.com"), //
+                new StringParameterDefinition("DETACH_KEYS", "ctrl-e,e")));
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(managedFile)));
+        project.getBuildersList().add(new Shell("cat \"$DOCKER_CFG\""));
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project);
+        r.assertLogContains("\"detachKeys\": \"ctrl-e,e\"", build);
+    }
+
+    @Test
+    void test_variables_are_not_expanded_by_default() throws Exception {
+        assumeTrue(!Functions.isWindows());
+
+        DockerConfig config = new DockerConfig("literalDockerId", "docker", null, "{\"detachKeys\": \"${DETACH_KEYS}\"}", null);
+        GlobalConfigFiles.get().save(config);
+
+        ManagedFile managedFile = new ManagedFile(config.id);
+        managedFile.setVariable("DOCKER_CFG");
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("DETACH_KEYS", "ctrl-e,e")));
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(managedFile)));
+        project.getBuildersList().add(new Shell("cat \"$DOCKER_CFG\""));
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project);
+        r.assertLogContains("${DETACH_KEYS}", build);
+    }
+
+    @Test
+    void test_no_credentials_for_expanded_hosts() throws Exception {
+        assumeTrue(!Functions.isWindows());
+
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next() //
+                .addCredentials(Domain.global(), new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "paramHostId", null, "myuser", "mypwd"));
+        DockerConfig config = new DockerConfig("paramHostDockerId", "docker", null, "{}", //
+                Arrays.asList(new DockerRegistry("https://${REGISTRY_HOST}/", "paramHostId")));
+        config.setExpandVariables(true);
+        GlobalConfigFiles.get().save(config);
+
+        ManagedFile managedFile = new ManagedFile(config.id);
+        managedFile.setVariable("DOCKER_CFG");
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("REGISTRY_HOST", "evil.com")));
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(managedFile)));
+        project.getBuildersList().add(new Shell("cat \"$DOCKER_CFG\""));
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project);
+        r.assertLogNotContains("\"auth\"", build);
+    }
+
+    @Test
+    void test_merge_into_existing_config() throws Exception {
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next() //
+                .addCredentials(Domain.global(), new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "mergeId", null, "myuser", "mypwd"));
+        DockerConfig config = new DockerConfig("mergeDockerId", "docker", null, "{\"credsStore\": \"none\"}", //
+                Arrays.asList(new DockerRegistry("https://docker.acme.com/", "mergeId")));
+        config.setMergeExisting(true);
+        GlobalConfigFiles.get().save(config);
+
+        ManagedFile managedFile = new ManagedFile(config.id);
+        managedFile.setTargetLocation(".docker/config.json");
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(managedFile)));
+        r.jenkins.getWorkspaceFor(project).child(".docker/config.json").write("{\n\t\"proxies\": {}\n}\n", "UTF-8");
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project);
+        String content = build.getWorkspace().child(".docker/config.json").readToString();
+        assertThat(content).startsWith("{\n\t\"proxies\": {},").doesNotContain("credsStore");
+        assertThat(content).contains(Base64.getEncoder().encodeToString("myuser:mypwd".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void test_merge_without_target_uses_a_build_copy() throws Exception {
+        assumeTrue(!Functions.isWindows());
+
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next() //
+                .addCredentials(Domain.global(), new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "copyId", null, "myuser", "mypwd"));
+        DockerConfig config = new DockerConfig("copyDockerId", "docker", null, "{}", //
+                Arrays.asList(new DockerRegistry("https://docker.acme.com/", "copyId")));
+        config.setMergeExisting(true);
+        GlobalConfigFiles.get().save(config);
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(new ManagedFile(config.id))));
+        project.getBuildersList().add(new Shell("printf %s \"$DOCKER_CONFIG\" > dir.txt\ncp \"$DOCKER_CONFIG/config.json\" copy.json"));
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project);
+        assertThat(build.getWorkspace().child("copy.json").readToString()) //
+                .contains(Base64.getEncoder().encodeToString("myuser:mypwd".getBytes(StandardCharsets.UTF_8)));
+        // the copy with credentials does not survive the build
+        assertThat(new File(build.getWorkspace().child("dir.txt").readToString())).doesNotExist();
+    }
+
+}
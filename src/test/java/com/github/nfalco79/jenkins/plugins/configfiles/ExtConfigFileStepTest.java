@@ -0,0 +1,99 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import hudson.model.Result;
+
+@WithJenkins
+public class ExtConfigFileStepTest {
+
+    private static JenkinsRule r;
+
+    @BeforeAll
+    static void init(JenkinsRule rule) {
+        r = rule;
+    }
+
+    @Test
+    void test_body_sees_provisioned_file() throws Exception {
+        GemConfig gem = new GemConfig("stepGemId", "gem", null, "---\n:verbose: true", null);
+        GlobalConfigFiles.get().save(gem);
+
+        WorkflowJob job = r.createProject(WorkflowJob.class);
+        job.setDefinition(new CpsFlowDefinition("node {\n" //
+                + "  extConfigFiles([configFile(fileId: 'stepGemId', variable: 'GEM_CFG')]) {\n" //
+                + "    echo readFile(env.GEM_CFG)\n" //
+                + "  }\n" //
+                + "}", true));
+
+        WorkflowRun build = r.buildAndAssertSuccess(job);
+        r.assertLogContains(":verbose: true", build);
+    }
+
+    @Test
+    void test_missing_config_fails_the_build() throws Exception {
+        WorkflowJob job = r.createProject(WorkflowJob.class);
+        job.setDefinition(new CpsFlowDefinition("node {\n" //
+                + "  extConfigFiles([configFile(fileId: 'missingId', variable: 'CFG')]) {\n" //
+                + "    echo 'unreachable'\n" //
+                + "  }\n" //
+                + "}", true));
+
+        WorkflowRun build = r.buildAndAssertStatus(Result.FAILURE, job);
+        r.assertLogContains(Messages.ExtConfigFileBuildWrapper_configNotFound("missingId"), build);
+        r.assertLogNotContains("unreachable", build);
+    }
+
+    @Test
+    void test_parallel_branches_share_file() throws Exception {
+        GemConfig gem = new GemConfig("sharedGemId", "gem", null, "---\n:verbose: true", null);
+        GlobalConfigFiles.get().save(gem);
+
+        WorkflowJob job = r.createProject(WorkflowJob.class);
+        job.setDefinition(new CpsFlowDefinition("node {\n" //
+                + "  def paths = [:]\n" //
+                + "  parallel a: {\n" //
+                + "    extConfigFiles([configFile(fileId: 'sharedGemId', variable: 'GEM_CFG')]) {\n" //
+                + "      paths.a = env.GEM_CFG\n" //
+                + "      waitUntil { paths.b != null }\n" //
+                + "    }\n" //
+                + "  }, b: {\n" //
+                + "    waitUntil { paths.a != null }\n" //
+                + "    extConfigFiles([configFile(fileId: 'sharedGemId', variable: 'GEM_CFG')]) {\n" //
+                + "      paths.b = env.GEM_CFG\n" //
+                + "    }\n" //
+                + "    echo \"exists after b: ${fileExists(paths.b)}\"\n" //
+                + "  }\n" //
+                + "  echo \"same file: ${paths.a == paths.b}\"\n" //
+                + "  echo \"exists at end: ${fileExists(paths.a)}\"\n" //
+                + "}", true));
+
+        WorkflowRun build = r.buildAndAssertSuccess(job);
+        r.assertLogContains("same file: true", build);
+        r.assertLogContains("exists at end: false", build);
+    }
+
+}
@@ -17,6 +17,11 @@
 package com.github.nfalco79.jenkins.plugins.configfiles;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.jenkinsci.lib.configprovider.model.Config;
 import org.junit.jupiter.api.BeforeAll;
@@ -27,6 +32,8 @@ import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 import com.github.nfalco79.jenkins.plugins.configfiles.PyPIConfig.PyPIConfigProvider;
 
 import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import hudson.util.FormValidation.Kind;
 
 @WithJenkins
 public class PyPIConfigTest {
@@ -51,4 +58,49 @@ public class PyPIConfigTest {
         assertThat(config.content).describedAs("Expected the default template, instead got empty").isNotBlank();
     }
 
-}
\ No newline at end of file
+    @Test
+    void test_bulk_servers() {
+        PyPIConfig config = new PyPIConfig("bulkId", null, null, null, Arrays.asList( //
+                new PyPIServer("acme", "https://pypi.acme.com/", "acmeId"), //
+                new PyPIServer("other", "https://other.acme.com/", null)));
+
+        config.setBulkServers("# replaced\n" //
+                + "other https://pypi.other.com/ otherId\n" //
+                + "\n" //
+                + "new https://pypi.new.com/");
+
+        assertThat(config.getServers()).extracting(PyPIServer::getName).containsExactly("acme", "other", "new");
+        assertThat(config.getServers().get(1).getUrl()).isEqualTo("https://pypi.other.com/");
+        assertThat(config.getBulkServers()).isEqualTo("acme https://pypi.acme.com/ acmeId\n" //
+                + "other https://pypi.other.com/ otherId\n" //
+                + "new https://pypi.new.com/\n");
+        assertThat(config.isBulkEdit()).isFalse();
+        assertThatThrownBy(() -> config.setBulkServers("https://pypi.acme.com/")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void test_bulk_servers_validation() {
+        PyPIConfigProvider provider = (PyPIConfigProvider) r.jenkins.getDescriptor(PyPIConfig.class);
+
+        assertThat(provider.doCheckBulkServers("# comment\nacme https://pypi.acme.com/ acmeId").kind).isEqualTo(Kind.OK);
+        FormValidation result = provider.doCheckBulkServers("acme https://pypi.acme.com/\n\nhttps://pypi.other.com/");
+        assertThat(result.kind).isEqualTo(Kind.ERROR);
+        assertThat(result.getMessage()).isEqualTo(Messages.BulkEntries_missingFields(3, 2));
+    }
+
+    @Test
+    void test_bulk_edit_of_many_servers() {
+        List<PyPIServer> servers = new ArrayList<>();
+        for (int i = 0; i <= BulkEntries.THRESHOLD; i++) {
+            servers.add(new PyPIServer("server" + i, "https://pypi" + i + ".acme.com/", null));
+        }
+        PyPIConfig config = new PyPIConfig("manyId", null, null, null, servers);
+        assertThat(config.isBulkEdit()).isTrue();
+
+        // the editor submits only the text form
+        PyPIConfig edited = new PyPIConfig("manyId", null, null, null, null);
+        edited.setBulkServers(config.getBulkServers());
+        assertThat(edited.getServers()).hasSameSizeAs(servers);
+    }
+
+}
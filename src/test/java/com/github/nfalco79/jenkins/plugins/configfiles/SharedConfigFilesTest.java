@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.nfalco79.jenkins.plugins.configfiles.SharedConfigFiles.Lease;
+
+public class SharedConfigFilesTest {
+
+    @Test
+    void test_waiter_takes_over_a_failed_owner() throws Exception {
+        Lease owner = SharedConfigFiles.acquire("job#1", "agent", "failed", false);
+        Lease waiter = SharedConfigFiles.acquire("job#1", "agent", "failed", false);
+        assertThat(owner.isOwner()).isTrue();
+        assertThat(waiter.isOwner()).isFalse();
+
+        owner.failed(new IOException("config not found"));
+        assertThat(waiter.await()).isNull();
+
+        Lease takeOver = SharedConfigFiles.acquire("job#1", "agent", "failed", false);
+        assertThat(takeOver.isOwner()).isTrue();
+        assertThat(takeOver.getName()).isNotEqualTo(owner.getName());
+        takeOver.written("/tmp/" + takeOver.getName());
+        assertThat(SharedConfigFiles.release("agent", "/tmp/" + takeOver.getName())).isFalse();
+    }
+
+    @Test
+    void test_new_owner_writes_a_new_file() throws Exception {
+        Lease first = SharedConfigFiles.acquire("job#1", "agent", "released", false);
+        first.written("/tmp/" + first.getName());
+        // the last holder released the file, its removal could be pending
+        assertThat(SharedConfigFiles.release("agent", "/tmp/" + first.getName())).isFalse();
+
+        Lease second = SharedConfigFiles.acquire("job#1", "agent", "released", false);
+        assertThat(second.isOwner()).isTrue();
+        assertThat(second.getName()).isNotEqualTo(first.getName());
+        second.written("/tmp/" + second.getName());
+        SharedConfigFiles.release("agent", "/tmp/" + second.getName());
+    }
+
+}
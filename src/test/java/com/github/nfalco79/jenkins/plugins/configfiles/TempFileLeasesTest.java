@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.jenkinsci.plugins.configfiles.buildwrapper.ManagedFile;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+
+@WithJenkins
+public class TempFileLeasesTest {
+
+    private static JenkinsRule r;
+
+    @BeforeAll
+    static void init(JenkinsRule rule) {
+        r = rule;
+    }
+
+    @Test
+    void test_files_are_released_at_the_end_of_the_build() throws Exception {
+        GemConfig gem = new GemConfig("leaseGemId", "gem", null, "---\n:verbose: true", null);
+        GlobalConfigFiles.get().save(gem);
+
+        ManagedFile managedFile = new ManagedFile(gem.id);
+        managedFile.setVariable("GEM_CFG");
+
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.getBuildWrappersList().add(new ExtConfigFileBuildWrapper(Arrays.asList(managedFile)));
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project);
+        assertThat(TempFileLeases.get().getLeased(build)).isEmpty();
+    }
+
+    @Test
+    void test_sweep_files_left_by_completed_build() throws Exception {
+        FreeStyleProject project = r.createFreeStyleProject();
+        FreeStyleBuild build = r.buildAndAssertSuccess(project);
+
+        File folder = Files.createTempDirectory("ext-configfiles").toFile();
+        File file = new File(folder, "config.tmp");
+        Files.writeString(file.toPath(), "secret");
+        List<String> paths = Arrays.asList(file.getPath(), folder.getPath());
+
+        // a build that crashed before its cleanup
+        TempFileLeases.get().acquire(build, "", paths);
+        assertThat(TempFileLeases.get().getLeased(build)).containsExactlyElementsOf(paths);
+
+        TempFileLeases.get().sweep(null);
+        assertThat(folder).doesNotExist();
+        assertThat(TempFileLeases.get().getLeased(build)).isEmpty();
+    }
+
+    @Test
+    void test_leases_are_saved_later() throws Exception {
+        FreeStyleBuild build = r.buildAndAssertSuccess(r.createFreeStyleProject());
+        File store = new File(r.jenkins.getRootDir(), TempFileLeases.class.getName() + ".xml");
+        List<String> paths = Arrays.asList("/tmp/ext-configfiles/saved.tmp");
+
+        TempFileLeases.get().acquire(build, "missing-node", paths);
+        TempFileLeases.get().save();
+        assertThat(Files.readString(store.toPath())).contains("saved.tmp");
+
+        TempFileLeases.get().release(build, "missing-node", paths);
+        TempFileLeases.get().save();
+        assertThat(Files.readString(store.toPath())).doesNotContain("saved.tmp");
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import com.cloudbees.plugins.credentials.domains.HostnameRequirement;
+
+import hudson.model.Run;
+
+public class BundleCredentialsResolverTest {
+
+    @Test
+    void test_credentials_are_resolved_once() {
+        Run<?, ?> build = mock(Run.class);
+        when(build.getExternalizableId()).thenReturn("job#1");
+        StandardUsernamePasswordCredentials credentials = mock(StandardUsernamePasswordCredentials.class);
+
+        CredentialsResolver delegate = mock(CredentialsResolver.class);
+        when(delegate.findCredentialById(anyString(), any(), any(), anyList())).thenReturn(credentials);
+
+        List<DomainRequirement> domain = Collections.singletonList(new HostnameRequirement("registry.acme.com"));
+        BundleCredentialsResolver resolver = new BundleCredentialsResolver(delegate);
+        assertThat(resolver.findCredentialById("id", StandardUsernamePasswordCredentials.class, build, domain)).isSameAs(credentials);
+        assertThat(resolver.findCredentialById("id", StandardUsernamePasswordCredentials.class, build, //
+                Collections.singletonList(new HostnameRequirement("registry.acme.com")))).isSameAs(credentials);
+        assertThat(resolver.findCredentialById("other", StandardUsernamePasswordCredentials.class, build, domain)).isSameAs(credentials);
+
+        verify(delegate, times(2)).findCredentialById(anyString(), any(), any(), anyList());
+        assertThat(resolver.size()).isEqualTo(2);
+    }
+
+}
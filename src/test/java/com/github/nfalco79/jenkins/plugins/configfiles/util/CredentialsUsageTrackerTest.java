@@ -0,0 +1,64 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Fingerprint;
+
+@WithJenkins
+public class CredentialsUsageTrackerTest {
+
+    private static JenkinsRule r;
+
+    @BeforeAll
+    static void init(JenkinsRule rule) {
+        r = rule;
+    }
+
+    @Test
+    void test_usages_are_coalesced_and_written_in_batch() throws Exception {
+        UsernamePasswordCredentialsImpl credentials = new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "tracked", "", "user", "password");
+        FreeStyleProject project = r.createFreeStyleProject();
+        FreeStyleBuild build = r.buildAndAssertSuccess(project);
+
+        CredentialsUsageTracker tracker = new CredentialsUsageTracker();
+        tracker.track(build, credentials);
+        tracker.track(build, credentials);
+        assertThat(tracker.getPendingCount()).isEqualTo(1);
+        assertThat(CredentialsProvider.getFingerprintOf(credentials)).isNull();
+
+        tracker.flush();
+        assertThat(tracker.getPendingCount()).isZero();
+
+        Fingerprint fingerprint = CredentialsProvider.getFingerprintOf(credentials);
+        assertThat(fingerprint).isNotNull();
+        assertThat(fingerprint.getJobs()).contains(project.getFullName());
+    }
+
+}
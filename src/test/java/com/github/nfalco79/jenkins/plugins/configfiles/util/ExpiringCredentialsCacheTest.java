@@ -0,0 +1,126 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import com.github.nfalco79.jenkins.plugins.configfiles.util.ExpiringCredentialsSource.Token;
+
+import hudson.util.Secret;
+
+@WithJenkins
+public class ExpiringCredentialsCacheTest {
+
+    private final ExpiringCredentialsCache cache = ExpiringCredentialsCache.get();
+    private final StubTokenSource source = new StubTokenSource();
+
+    @BeforeAll
+    static void init(JenkinsRule rule) {
+        // credentials secrets need a running instance
+    }
+
+    @BeforeEach
+    void setUp() {
+        cache.clear();
+    }
+
+    @Test
+    void test_token_is_refreshed_in_background() throws Exception {
+        StandardUsernamePasswordCredentials credentials = credentials("tokenId", "pwd");
+
+        assertThat(Secret.toString(cache.getToken(credentials, source).getPassword())).isEqualTo("secret1");
+        assertThat(Secret.toString(cache.getToken(credentials, source).getPassword())).isEqualTo("secret1");
+
+        cache.refreshAll();
+        assertThat(Secret.toString(cache.getToken(credentials, source).getPassword())).isEqualTo("secret2");
+        assertThat(source.minted).isEqualTo(2);
+    }
+
+    @Test
+    void test_last_good_token_is_kept_when_refresh_fails() throws Exception {
+        StandardUsernamePasswordCredentials credentials = credentials("failingId", "pwd");
+        cache.getToken(credentials, source);
+
+        source.failing = true;
+        cache.refreshAll();
+
+        assertThat(Secret.toString(cache.getToken(credentials, source).getPassword())).isEqualTo("secret1");
+    }
+
+    @Test
+    void test_expired_token_is_minted_by_the_build() throws Exception {
+        StandardUsernamePasswordCredentials credentials = credentials("expiredId", "pwd");
+        source.lifetime = -1000;
+        cache.getToken(credentials, source);
+
+        assertThat(Secret.toString(cache.getToken(credentials, source).getPassword())).isEqualTo("secret2");
+
+        source.failing = true;
+        assertThatThrownBy(() -> cache.getToken(credentials, source)) //
+                .isInstanceOf(IOException.class) //
+                .hasMessageContaining("expiredId is expired");
+    }
+
+    @Test
+    void test_new_instances_of_same_credentials_share_the_token() throws Exception {
+        cache.getToken(credentials("sharedId", "pwd"), source);
+        cache.getToken(credentials("sharedId", "pwd"), source);
+        assertThat(source.minted).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(1);
+
+        // same id in another store with a different secret
+        cache.getToken(credentials("sharedId", "other"), source);
+        assertThat(source.minted).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    private StandardUsernamePasswordCredentials credentials(String id, String password) throws Exception {
+        return new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, id, null, "myuser", password);
+    }
+
+    private static class StubTokenSource extends ExpiringCredentialsSource {
+        private int minted;
+        private boolean failing;
+        private long lifetime = 3600000;
+
+        @Override
+        public boolean isApplicable(StandardUsernamePasswordCredentials credentials) {
+            return true;
+        }
+
+        @Override
+        public Token mint(StandardUsernamePasswordCredentials credentials) throws IOException {
+            if (failing) {
+                throw new IOException("backend unavailable");
+            }
+            return new Token("token", Secret.fromString("secret" + (++minted)), System.currentTimeMillis() + lifetime);
+        }
+    }
+
+}
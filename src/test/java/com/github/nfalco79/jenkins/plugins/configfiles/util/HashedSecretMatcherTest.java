@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.junit.jupiter.api.Test;
+
+public class HashedSecretMatcherTest {
+
+    private String mask(HashedSecretMatcher matcher, String text) {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        return new String(matcher.mask(data, data.length), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void test_mask_all_secrets() {
+        HashedSecretMatcher matcher = HashedSecretMatcher.compile(Arrays.asList("he", "she", "hers", "secret"));
+
+        assertThat(mask(matcher, "ushers keep a secret")).isEqualTo("u**** keep a ****");
+        assertThat(mask(matcher, "nothing to hide")).isEqualTo("nothing to hide");
+        assertThat(mask(matcher, "secretsecret")).isEqualTo("****");
+    }
+
+    @Test
+    void test_no_match_returns_same_bytes() {
+        HashedSecretMatcher matcher = HashedSecretMatcher.compile(Arrays.asList("password"));
+        byte[] data = "pass word\n".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(matcher.mask(data, data.length)).isSameAs(data);
+    }
+
+    @Test
+    void test_empty_matcher() {
+        HashedSecretMatcher matcher = HashedSecretMatcher.compile(Arrays.asList(""));
+
+        assertThat(matcher.isEmpty()).isTrue();
+        assertThat(HashedSecretMatcher.compile(Collections.emptyList()).isEmpty()).isTrue();
+        assertThat(mask(matcher, "any text")).isEqualTo("any text");
+    }
+
+    @Test
+    void test_many_secrets() {
+        List<String> secrets = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            secrets.add("token-" + i + "-àè");
+        }
+        HashedSecretMatcher matcher = HashedSecretMatcher.compile(secrets);
+
+        assertThat(mask(matcher, "login token-999-àè and token-10-àè, token-1000-àè")).isEqualTo("login **** and ****, token-1000-àè");
+    }
+
+    @Test
+    void test_serialized_form_has_no_secret() {
+        HashedSecretMatcher matcher = HashedSecretMatcher.compile(Arrays.asList("s3cr3t-value"));
+
+        byte[] serialized = SerializationUtils.serialize(matcher);
+        assertThat(new String(serialized, StandardCharsets.ISO_8859_1)).doesNotContain("s3cr3t-value");
+        assertThat(mask((HashedSecretMatcher) SerializationUtils.deserialize(serialized), "pwd s3cr3t-value")).isEqualTo("pwd ****");
+    }
+
+}
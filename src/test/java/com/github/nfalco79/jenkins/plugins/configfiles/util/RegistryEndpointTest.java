@@ -0,0 +1,51 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import com.cloudbees.plugins.credentials.domains.HostnameRequirement;
+
+public class RegistryEndpointTest {
+
+    @Test
+    void test_endpoint_is_cached_by_url() {
+        RegistryEndpoint endpoint = RegistryEndpoint.of("https://acme.com:8443/pypi/");
+
+        assertThat(RegistryEndpoint.of(" https://acme.com:8443/pypi/ ")).isSameAs(endpoint);
+        assertThat(endpoint.isValid()).isTrue();
+        assertThat(endpoint.getProtocol()).isEqualTo("https");
+        assertThat(endpoint.getHost()).isEqualTo("acme.com");
+        assertThat(endpoint.getPort()).isEqualTo(8443);
+        assertThat(endpoint.getPath()).isEqualTo("/pypi/");
+        assertThat(endpoint.getDomainRequirements()).singleElement() //
+                .isInstanceOfSatisfying(HostnameRequirement.class, r -> assertThat(r.getPartialHostname()).isEqualTo("acme.com"));
+    }
+
+    @Test
+    void test_malformed_url_has_no_domain_filter() {
+        RegistryEndpoint endpoint = RegistryEndpoint.of("docker.acme.com");
+
+        assertThat(endpoint.isValid()).isFalse();
+        assertThat(endpoint.getHost()).isNull();
+        assertThat(endpoint.getDomainRequirements()).isEmpty();
+        assertThat(RegistryEndpoint.of(null).getUrl()).isNull();
+    }
+
+}
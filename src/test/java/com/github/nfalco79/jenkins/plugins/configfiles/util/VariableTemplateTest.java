@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021 Nikolas Falco
+ *
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.jenkins.plugins.configfiles.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.nfalco79.jenkins.plugins.configfiles.util.VariableTemplate.Format;
+
+import hudson.AbortException;
+
+public class VariableTemplateTest {
+
+    private final Map<String, String> env = Map.of("HOST", "acme.com", "PORT", "8443");
+
+    @Test
+    void test_expand_variables() {
+        VariableTemplate template = VariableTemplate.compile("https://${HOST}:${PORT}/${MISSING}/${HOST");
+
+        assertThat(template.hasVariables()).isTrue();
+        assertThat(template.expand(env)).isEqualTo("https://acme.com:8443/${MISSING}/${HOST");
+        assertThat(VariableTemplate.compile("https://${HOST}:${PORT}/${MISSING}/${HOST")).isSameAs(template);
+    }
+
+    @Test
+    void test_text_without_variables() {
+        String text = "https://acme.com/$HOST";
+
+        assertThat(VariableTemplate.compile(text).hasVariables()).isFalse();
+        assertThat(VariableTemplate.expand(text, env)).isSameAs(text);
+        assertThat(VariableTemplate.expand(null, env)).isNull();
+        assertThat(VariableTemplate.compile("").expand(env)).isEmpty();
+    }
+
+    @Test
+    void test_expand_entries() throws Exception {
+        List<String> entries = Arrays.asList("https://${HOST}/", "https://other.com/");
+
+        assertThat(VariableTemplate.expand(entries, url -> url, (entry, url) -> url, env)).containsExactly("https://acme.com/", "https://other.com/");
+        assertThat(VariableTemplate.expand(entries, url -> url, (entry, url) -> url, Collections.emptyMap())).isSameAs(entries);
+        assertThatExceptionOfType(AbortException.class) //
+                .isThrownBy(() -> VariableTemplate.expand(entries, url -> url, (entry, url) -> url, Map.of("HOST", "acme.com\"\n[evil]")));
+    }
+
+    @Test
+    void test_values_are_escaped_for_the_format() {
+        Map<String, String> values = Map.of("VALUE", "a\"b\n[evil]\nkey: it's");
+
+        assertThat(VariableTemplate.expand("{\"detachKeys\": \"${VALUE}\"}", values, Format.JSON)) //
+                .isEqualTo("{\"detachKeys\": \"a\\\"b\\u000a[evil]\\u000akey: it's\"}");
+        assertThat(VariableTemplate.expand("[global]\ntimeout = ${VALUE}\n", values, Format.INI)) //
+                .isEqualTo("[global]\ntimeout = a\"b [evil] key: it's\n");
+        assertThat(VariableTemplate.expand(":a: \"${VALUE}\"\n:b: '${VALUE}'\n:c: ${VALUE}", values, Format.YAML)) //
+                .isEqualTo(":a: \"a\\\"b\\x0a[evil]\\x0akey: it's\"\n" //
+                        + ":b: 'a\"b [evil] key: it''s'\n" //
+                        + ":c: a\"b [evil] key: it's");
+    }
+
+    @Test
+    void test_fixed_host() {
+        assertThat(VariableTemplate.hasFixedHost("https://acme.com/${PATH}")).isTrue();
+        assertThat(VariableTemplate.hasFixedHost("https://${HOST}/")).isFalse();
+        assertThat(VariableTemplate.hasFixedHost("https://acme.com:${PORT}/")).isFalse();
+        assertThat(VariableTemplate.hasFixedHost("${HOST}/path")).isFalse();
+    }
+
+}